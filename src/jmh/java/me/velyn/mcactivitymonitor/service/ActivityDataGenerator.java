@@ -0,0 +1,130 @@
+package me.velyn.mcactivitymonitor.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.velyn.mcactivitymonitor.service.storage.ActivitySegments;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates synthetic activity data for the benchmarks and opens a {@link DataStorageService} on it.
+ * <p>
+ * The data is written in the format of the original single {@code activity-records.csv} file, which the storage
+ * service migrates into segments the first time it is opened. Every server is sampled once a minute, has its own
+ * population following a daily curve with noise, and is offline for a while now and then.
+ * A generated data set is kept and reused by later runs with the same parameters.
+ * <p>
+ * Can also be run on its own to produce data for manual testing:
+ * {@code ActivityDataGenerator <directory> <servers> <days>}
+ */
+public class ActivityDataGenerator {
+    public static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 0, 0);
+    private static final DateTimeFormatter ISO_DATE_TIME_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final char SEPARATOR = ';';
+    private static final String COMPLETE_MARKER = ".complete";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: ActivityDataGenerator <directory> <servers> <days>");
+            System.exit(1);
+        }
+        Path dir = generate(Paths.get(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        System.out.println("Activity data written to " + dir.toAbsolutePath());
+    }
+
+    /**
+     * Name of the {@code i}th generated server.
+     */
+    public static String serverName(int i) {
+        return "play" + i + ".example.net";
+    }
+
+    /**
+     * Generates the data set into a subdirectory of {@code baseDir}, unless it already exists.
+     *
+     * @return the directory of the data set
+     */
+    public static Path generate(Path baseDir, int servers, int days) throws IOException {
+        Path dir = baseDir.resolve(servers + "-servers-" + days + "-days");
+        if (Files.exists(dir.resolve(COMPLETE_MARKER))) return dir;
+        Files.createDirectories(dir);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("servers.csv"), StandardCharsets.UTF_8);
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat("server", "lastFetchTime"))) {
+            for (int s = 0; s < servers; s++) {
+                printer.printRecord(serverName(s), ISO_DATE_TIME_FORMAT.format(START.plusDays(days)));
+            }
+        }
+
+        Random random = new Random(42);
+        int[] peakPlayers = new int[servers];
+        int[] offlineMinutesLeft = new int[servers];
+        for (int s = 0; s < servers; s++) {
+            // Few large networks, many small servers
+            peakPlayers[s] = (int) Math.round(Math.exp(random.nextDouble() * Math.log(500)));
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("activity-records.csv"), StandardCharsets.UTF_8);
+             CSVPrinter printer = new CSVPrinter(writer, csvFormat("recordCreationTime", "dataRetrievalTime", "online", "server", "playerCount"))) {
+            for (long minute = 0; minute < days * 24L * 60L; minute++) {
+                LocalDateTime retrievalTime = START.plusMinutes(minute);
+                double dailyCurve = 0.55 + 0.45 * Math.sin((retrievalTime.getHour() - 13) / 24.0 * 2 * Math.PI);
+                for (int s = 0; s < servers; s++) {
+                    if (offlineMinutesLeft[s] == 0 && random.nextInt(20_000) == 0) {
+                        offlineMinutesLeft[s] = 5 + random.nextInt(240);
+                    }
+                    boolean online = offlineMinutesLeft[s] == 0;
+                    if (!online) offlineMinutesLeft[s]--;
+                    int playerCount = online
+                            ? Math.max(0, (int) Math.round(peakPlayers[s] * dailyCurve + random.nextGaussian() * Math.sqrt(peakPlayers[s])))
+                            : 0;
+                    printer.printRecord(
+                            ISO_DATE_TIME_FORMAT.format(retrievalTime.plusSeconds(1 + random.nextInt(3))),
+                            ISO_DATE_TIME_FORMAT.format(retrievalTime),
+                            online,
+                            serverName(s),
+                            playerCount);
+                }
+            }
+        }
+        Files.createFile(dir.resolve(COMPLETE_MARKER));
+        return dir;
+    }
+
+    /**
+     * Opens a storage service with the default configuration on a generated data set, as the application would on startup.
+     * Call {@link #close(DataStorageService)} when done.
+     */
+    public static DataStorageService open(Path dir, boolean memoryStoreEnabled) {
+        DataStorageService service = new DataStorageService();
+        service.serversFilePath = dir.resolve("servers.csv").toString();
+        service.activityRecordsFilePath = dir.resolve("activity-records.csv").toString();
+        service.activityMemoryStoreEnabled = memoryStoreEnabled;
+        service.activitySegmentPeriod = ActivitySegments.Period.MONTH;
+        service.activityFormat = ActivitySegments.Format.CSV;
+        service.activityScanChunkSize = 8 * 1024 * 1024;
+        service.meterRegistry = new SimpleMeterRegistry();
+        service.onStart(null);
+        return service;
+    }
+
+    public static void close(DataStorageService service) {
+        service.onStop(null);
+    }
+
+    private static CSVFormat csvFormat(String... header) {
+        return CSVFormat.DEFAULT.builder()
+                .setHeader(header)
+                .setDelimiter(SEPARATOR)
+                .get();
+    }
+}
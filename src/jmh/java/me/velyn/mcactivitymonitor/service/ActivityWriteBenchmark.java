@@ -0,0 +1,67 @@
+package me.velyn.mcactivitymonitor.service;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DataStorageService#writeActivityRecords(List)} into an initially empty storage directory,
+ * one batch per invocation as the activity record writer commits them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ActivityWriteBenchmark {
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param("100")
+    public int servers;
+
+    private DataStorageService storage;
+    private LocalDateTime next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path baseDir = Paths.get(System.getProperty("jmh.data.dir", "target/jmh-data"));
+        Files.createDirectories(baseDir);
+        storage = ActivityDataGenerator.open(Files.createTempDirectory(baseDir, "write-"), true);
+        for (int s = 0; s < servers; s++) {
+            storage.addServer(ActivityDataGenerator.serverName(s));
+        }
+        next = ActivityDataGenerator.START;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ActivityDataGenerator.close(storage);
+    }
+
+    @Benchmark
+    public void writeBatch() {
+        List<ActivityRecord> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            ActivityRecord ar = new ActivityRecord();
+            ar.dataRetrievalTime = next;
+            ar.recordCreationTime = next.plusSeconds(1);
+            ar.online = true;
+            ar.server = ActivityDataGenerator.serverName(i % servers);
+            ar.playerCount = i % 50;
+            batch.add(ar);
+            next = next.plusSeconds(1);
+        }
+        storage.writeActivityRecords(batch);
+    }
+}
@@ -0,0 +1,81 @@
+package me.velyn.mcactivitymonitor.service;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.service.DataStorageService.ActivityRecordFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of {@link DataStorageService} on a generated history, with and without the in-memory store.
+ * The default history is 100 servers × 30 days, {@code -p days=365} runs it on a full year.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DataStorageServiceBenchmark {
+
+    @Param("100")
+    public int servers;
+
+    @Param("30")
+    public int days;
+
+    @Param({"true", "false"})
+    public boolean memoryStore;
+
+    private DataStorageService storage;
+    private String server;
+    private LocalDateTime lastDay;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = ActivityDataGenerator.generate(Paths.get(System.getProperty("jmh.data.dir", "target/jmh-data")), servers, days);
+        storage = ActivityDataGenerator.open(dir, memoryStore);
+        server = ActivityDataGenerator.serverName(servers / 2);
+        lastDay = ActivityDataGenerator.START.plusDays(days - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ActivityDataGenerator.close(storage);
+    }
+
+    @Benchmark
+    public List<ActivityRecord> allRecords() {
+        return storage.getActivityRecords(null);
+    }
+
+    @Benchmark
+    public List<ActivityRecord> serverAllRecords() {
+        return storage.getActivityRecords(new ActivityRecordFilter(null, null, server));
+    }
+
+    @Benchmark
+    public List<ActivityRecord> serverLastDay() {
+        return storage.getActivityRecords(new ActivityRecordFilter(lastDay, null, server));
+    }
+
+    @Benchmark
+    public List<ActivityRecord> allServersLastDay() {
+        return storage.getActivityRecords(new ActivityRecordFilter(lastDay, null, null));
+    }
+
+    @Benchmark
+    public ActivityRecord lastActivityRecord() {
+        return storage.getLastActivityRecord(server);
+    }
+
+    @Benchmark
+    public long distinctDaysCount() {
+        return storage.getDistinctDaysCount();
+    }
+}
@@ -0,0 +1,68 @@
+package me.velyn.mcactivitymonitor.ui;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.service.ActivityDataGenerator;
+import me.velyn.mcactivitymonitor.service.DataStorageService;
+import me.velyn.mcactivitymonitor.service.DataStorageService.ActivityRecordFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The aggregations the server activity table is rendered from, applied to the records of one server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QuteServiceBenchmark {
+
+    @Param("100")
+    public int servers;
+
+    @Param("30")
+    public int days;
+
+    /**
+     * Number of most recent days of the server's records to aggregate
+     */
+    @Param({"7", "30"})
+    public int lastXDays;
+
+    private QuteService quteService;
+    private DataStorageService storage;
+    private List<ActivityRecord> records;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = ActivityDataGenerator.generate(Paths.get(System.getProperty("jmh.data.dir", "target/jmh-data")), servers, days);
+        storage = ActivityDataGenerator.open(dir, true);
+        quteService = new QuteService();
+        quteService.dataStorageService = storage;
+        records = storage.getActivityRecords(new ActivityRecordFilter(
+                ActivityDataGenerator.START.plusDays(days - lastXDays), null, ActivityDataGenerator.serverName(servers / 2)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ActivityDataGenerator.close(storage);
+    }
+
+    @Benchmark
+    public List<ActivityRecord> accumulateByHour() {
+        return quteService.accumulateByHour(records);
+    }
+
+    @Benchmark
+    public Map<LocalDate, List<ActivityRecord>> groupByDate() {
+        return quteService.groupByDate(records);
+    }
+}
@@ -0,0 +1,29 @@
+package me.velyn.mcactivitymonitor.data;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+@Schema(name = "ActivityRollup", description = "Aggregated activity of a server over one hour or one day")
+public class ActivityRollup {
+    @Schema(description = "Server hostname", examples = "play.example.net")
+    public String server;
+
+    @Schema(description = "Start of the aggregated time bucket", examples = "2025-01-10T12:00:00")
+    public LocalDateTime bucketStart;
+
+    @Schema(description = "Number of activity records in the bucket", examples = "60")
+    public int sampleCount;
+
+    @Schema(description = "Share of records in which the server was online, between 0 and 1", examples = "0.95")
+    public double uptimeRatio;
+
+    @Schema(description = "Lowest player count in the bucket", examples = "3")
+    public int minPlayers;
+
+    @Schema(description = "Average player count in the bucket", examples = "10.5")
+    public double avgPlayers;
+
+    @Schema(description = "Highest player count in the bucket", examples = "17")
+    public int maxPlayers;
+}
@@ -11,4 +11,24 @@ public class ServerRecord {
 
     @Schema(description = "Last time data was fetched for this server", examples = "2025-01-10T12:34:56")
     public LocalDateTime lastFetchTime;
+
+    @Schema(description = "State of the circuit breaker of the server's checks", examples = "CLOSED")
+    public CheckState checkState = CheckState.CLOSED;
+
+    @Schema(description = "Number of checks that failed in a row", examples = "0")
+    public int consecutiveFailures;
+
+    @Schema(description = "Earliest time of the next check while checks are suspended", examples = "2025-01-10T13:04:56")
+    public LocalDateTime nextRetryTime;
+
+    @Schema(description = "Error of the last failed check", examples = "UnknownHostException: play.example.net")
+    public String lastError;
+
+    @Schema(name = "CheckState", description = "CLOSED: checked normally, OPEN: checks suspended after repeated failures, "
+            + "HALF_OPEN: a single trial check decides whether checks resume")
+    public enum CheckState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
 }
@@ -0,0 +1,94 @@
+package me.velyn.mcactivitymonitor.dataprovider;
+
+import me.velyn.mcactivitymonitor.data.ServerRecord.CheckState;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Circuit breaker for the status checks of one server.
+ * <p>
+ * While closed every check is allowed. After {@code failureThreshold} failed checks in a row it opens and allows no
+ * check until the open duration has passed, then it is half-open and lets a single trial check through. A successful
+ * trial closes it again, a failed one opens it for twice the previous duration, up to {@code maxOpenDuration}.
+ */
+public class CircuitBreaker {
+
+    /**
+     * @param retryAt time from which the next check is allowed, {@code null} unless open
+     */
+    public record Snapshot(CheckState state, int consecutiveFailures, LocalDateTime retryAt, String lastError) {
+        public static final Snapshot CLOSED = new Snapshot(CheckState.CLOSED, 0, null, null);
+    }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Duration maxOpenDuration;
+
+    private CheckState state = CheckState.CLOSED;
+    private int consecutiveFailures = 0;
+    private Duration currentOpenDuration = null;
+    private LocalDateTime retryAt = null;
+    private String lastError = null;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration, Duration maxOpenDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+        this.maxOpenDuration = maxOpenDuration.compareTo(openDuration) < 0 ? openDuration : maxOpenDuration;
+    }
+
+    /**
+     * Whether a check may run now. Moves an open breaker whose duration has passed to half-open,
+     * where only the first caller is allowed until the trial check is reported.
+     */
+    public synchronized boolean tryAcquire(LocalDateTime now) {
+        return switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> false;
+            case OPEN -> {
+                if (now.isBefore(retryAt)) yield false;
+                state = CheckState.HALF_OPEN;
+                yield true;
+            }
+        };
+    }
+
+    /**
+     * Gives up a trial check that was neither a success nor a failure, the next caller may try again.
+     */
+    public synchronized void release() {
+        if (state == CheckState.HALF_OPEN) state = CheckState.OPEN;
+    }
+
+    /**
+     * @return whether this changed the breaker, i.e. there were failures before
+     */
+    public synchronized boolean onSuccess() {
+        boolean changed = consecutiveFailures > 0;
+        state = CheckState.CLOSED;
+        consecutiveFailures = 0;
+        currentOpenDuration = null;
+        retryAt = null;
+        lastError = null;
+        return changed;
+    }
+
+    public synchronized void onFailure(LocalDateTime now, String error) {
+        consecutiveFailures++;
+        lastError = error;
+        if (state == CheckState.HALF_OPEN) {
+            currentOpenDuration = currentOpenDuration.multipliedBy(2);
+            if (currentOpenDuration.compareTo(maxOpenDuration) > 0) currentOpenDuration = maxOpenDuration;
+        } else if (state == CheckState.CLOSED && consecutiveFailures >= failureThreshold) {
+            currentOpenDuration = openDuration;
+        } else {
+            return;
+        }
+        state = CheckState.OPEN;
+        retryAt = now.plus(currentOpenDuration);
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(state, consecutiveFailures, retryAt, lastError);
+    }
+}
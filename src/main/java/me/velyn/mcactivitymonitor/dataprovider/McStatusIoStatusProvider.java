@@ -0,0 +1,55 @@
+package me.velyn.mcactivitymonitor.dataprovider;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.time.Instant;
+
+/**
+ * Fetches the status through the mcstatus.io API, keeping to its rate limit.
+ */
+@ApplicationScoped
+public class McStatusIoStatusProvider implements StatusProvider {
+
+    @RestClient
+    McStatusIoV2Client mcStatusIoV2Client;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    /**
+     * The API rate limits at 5 requests per second per IP
+     */
+    @ConfigProperty(name = "dataprovider.rate-limit.per-second", defaultValue = "5")
+    double rateLimitPerSecond;
+
+    @ConfigProperty(name = "dataprovider.rate-limit.burst", defaultValue = "1")
+    int rateLimitBurst;
+
+    private TokenBucketRateLimiter rateLimiter;
+
+    @PostConstruct
+    void init() {
+        rateLimiter = new TokenBucketRateLimiter(rateLimitPerSecond, rateLimitBurst);
+    }
+
+    @Override
+    public Status getStatus(String address) throws InterruptedException {
+        Timer.Sample waiting = Timer.start(meterRegistry);
+        try {
+            rateLimiter.acquire();
+        } finally {
+            waiting.stop(meterRegistry.timer("dataprovider.rate-limit.wait"));
+        }
+
+        McStatusIoV2Client.JavaStatus status = mcStatusIoV2Client.getStatusJava(address, false);
+        return new Status(status.online,
+                status.online && status.players != null ? status.players.online : 0,
+                Instant.ofEpochMilli(status.retrieved_at));
+    }
+}
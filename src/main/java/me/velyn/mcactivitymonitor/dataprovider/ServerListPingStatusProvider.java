@@ -0,0 +1,313 @@
+package me.velyn.mcactivitymonitor.dataprovider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches the status directly from the server with the Server List Ping of the Java Edition (1.7 and later).
+ * <p>
+ * Sends a handshake with the next state "status" and a status request, and reads the JSON status response.
+ * Sockets are non-blocking, every step waits at most until its timeout. Addresses without port are resolved
+ * through their {@code _minecraft._tcp} SRV record like the game client does, falling back to port 25565.
+ * Of several SRV records the one with the lowest priority and highest weight is used. The SRV lookup gives up after
+ * the connect timeout per DNS server, the hostname itself is resolved by the system resolver with its own timeouts.
+ * A server that cannot be connected to is offline, a hostname that does not resolve or a server that answers garbage
+ * is an error.
+ */
+@ApplicationScoped
+public class ServerListPingStatusProvider implements StatusProvider {
+    private static final int DEFAULT_PORT = 25565;
+    // By convention when the client does not know which version the server runs
+    private static final int PROTOCOL_VERSION = -1;
+    private static final int NEXT_STATE_STATUS = 1;
+    private static final int PACKET_ID = 0x00;
+    private static final int MAX_RESPONSE_SIZE = 2 * 1024 * 1024;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "dataprovider.ping.connect-timeout", defaultValue = "3000")
+    int connectTimeoutMillis;
+
+    @ConfigProperty(name = "dataprovider.ping.read-timeout", defaultValue = "5000")
+    int readTimeoutMillis;
+
+    // DNS server for the SRV lookup as dns://host:port, null for the system's. Package-private so tests can set it.
+    String dnsProviderUrl = null;
+
+    @Override
+    public Status getStatus(String address) throws IOException, InterruptedException {
+        Target target = resolve(address);
+        InetSocketAddress socketAddress = new InetSocketAddress(target.host(), target.port());
+        if (socketAddress.isUnresolved()) {
+            throw new UnknownHostException(target.host());
+        }
+        try (AsynchronousSocketChannel channel = AsynchronousSocketChannel.open()) {
+            try {
+                await(channel.connect(socketAddress), connectTimeoutMillis);
+            } catch (IOException e) {
+                Log.debugf("Could not connect to '%s': %s", address, e.toString());
+                return offline();
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+            ByteBuffer request = ByteBuffer.wrap(statusRequest(target));
+            while (request.hasRemaining()) {
+                await(channel.write(request), remainingMillis(deadline));
+            }
+            String json = readStatusResponse(channel, deadline);
+            return new Status(true, parsePlayersOnline(json), Instant.now());
+        }
+    }
+
+    /**
+     * Number of players online from the JSON status response.
+     */
+    int parsePlayersOnline(String json) throws IOException {
+        JsonNode online = objectMapper.readTree(json).path("players").path("online");
+        if (!online.canConvertToInt()) {
+            throw new IOException("Status response without player count");
+        }
+        return online.intValue();
+    }
+
+    private static Status offline() {
+        return new Status(false, 0, Instant.now());
+    }
+
+    // ---------------------
+    // Protocol
+    // ---------------------
+
+    private static byte[] statusRequest(Target target) {
+        ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+        writeVarInt(handshake, PACKET_ID);
+        writeVarInt(handshake, PROTOCOL_VERSION);
+        byte[] host = target.host().getBytes(StandardCharsets.UTF_8);
+        writeVarInt(handshake, host.length);
+        handshake.writeBytes(host);
+        handshake.write((target.port() >>> 8) & 0xFF);
+        handshake.write(target.port() & 0xFF);
+        writeVarInt(handshake, NEXT_STATE_STATUS);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, handshake.size());
+        out.writeBytes(handshake.toByteArray());
+        // Status request, a packet without fields
+        writeVarInt(out, 1);
+        writeVarInt(out, PACKET_ID);
+        return out.toByteArray();
+    }
+
+    private String readStatusResponse(AsynchronousSocketChannel channel, long deadline) throws IOException, InterruptedException {
+        // Holds the bytes read so far in [0, position)
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        int packetLength = -1;
+        int packetStart = 0;
+        while (packetLength < 0 || buffer.position() < packetStart + packetLength) {
+            int n = await(channel.read(buffer), remainingMillis(deadline));
+            if (n < 0) throw new IOException("Connection closed before the status response was complete");
+            if (packetLength >= 0) continue;
+
+            ByteBuffer read = buffer.duplicate().flip();
+            packetLength = readVarInt(read);
+            // Incomplete VarInts leave the position at 0, a complete negative one is not a length
+            if (packetLength < 0 && read.position() > 0) throw new IOException("Malformed status response");
+            if (packetLength > MAX_RESPONSE_SIZE) throw new IOException("Status response too large: " + packetLength + " bytes");
+            packetStart = read.position();
+            if (packetLength >= 0 && packetStart + packetLength > buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(packetStart + packetLength);
+                larger.put(buffer.flip());
+                buffer = larger;
+            }
+        }
+
+        ByteBuffer packet = buffer.flip().position(packetStart).limit(packetStart + packetLength);
+        int packetId = readVarInt(packet);
+        if (packetId != PACKET_ID) throw new IOException("Unexpected packet " + packetId + " instead of the status response");
+        int jsonLength = readVarInt(packet);
+        if (jsonLength < 0 || jsonLength > packet.remaining()) throw new IOException("Malformed status response");
+        byte[] json = new byte[jsonLength];
+        packet.get(json);
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads a VarInt at the buffer's position.
+     *
+     * @return {@code -1} with the position unchanged if the buffer ends before the VarInt does
+     */
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return -1;
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    // ---------------------
+    // Helpers
+    // ---------------------
+
+    record Target(String host, int port) {}
+
+    Target resolve(String address) {
+        String host = address.trim();
+        int port = -1;
+        int colon = host.lastIndexOf(':');
+        if (host.startsWith("[")) {
+            // IPv6 literal, [::1] or [::1]:25565
+            int end = host.indexOf(']');
+            if (end > 0 && colon > end) port = parsePort(host.substring(colon + 1));
+            host = end > 0 ? host.substring(1, end) : host;
+        } else if (colon > 0 && colon == host.indexOf(':')) {
+            port = parsePort(host.substring(colon + 1));
+            host = host.substring(0, colon);
+        }
+        if (port > 0) return new Target(host, port);
+        Target srv = lookupSrv(host);
+        return srv != null ? srv : new Target(host, DEFAULT_PORT);
+    }
+
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            return port > 0 && port <= 0xFFFF ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Looks up the SRV record within the connect timeout per DNS server: one attempt that waits that long, where the
+     * JNDI default of five attempts with doubling timeouts waits up to 31 seconds.
+     */
+    private Target lookupSrv(String host) {
+        Hashtable<String, String> env = new Hashtable<>();
+        env.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+        env.put("com.sun.jndi.dns.timeout.initial", String.valueOf(Math.max(1, connectTimeoutMillis)));
+        env.put("com.sun.jndi.dns.timeout.retries", "1");
+        if (dnsProviderUrl != null) {
+            env.put("java.naming.provider.url", dnsProviderUrl);
+        }
+        DirContext context = null;
+        try {
+            context = new InitialDirContext(env);
+            Attribute srv = context.getAttributes("_minecraft._tcp." + host, new String[]{"SRV"}).get("SRV");
+            if (srv == null) return null;
+            List<String> records = new ArrayList<>();
+            for (int i = 0; i < srv.size(); i++) {
+                records.add(String.valueOf(srv.get(i)));
+            }
+            return selectSrv(records);
+        } catch (NamingException | RuntimeException e) {
+            // No SRV record, or no DNS available at all
+            return null;
+        } finally {
+            if (context != null) {
+                try {
+                    context.close();
+                } catch (NamingException ignored) {
+                    // Nothing to release
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the SRV record with the lowest priority and of those the one with the highest weight. A simplification of
+     * the weighted random choice among equal priorities that RFC 2782 describes, which only matters for servers that
+     * publish several records to spread their load.
+     *
+     * @param records SRV records as {@code "priority weight port target."}
+     * @return {@code null} if no record is valid
+     */
+    static Target selectSrv(List<String> records) {
+        Target selected = null;
+        int selectedPriority = Integer.MAX_VALUE;
+        int selectedWeight = -1;
+        for (String record : records) {
+            String[] parts = record.trim().split("\\s+");
+            if (parts.length != 4) continue;
+            int priority, weight;
+            try {
+                priority = Integer.parseInt(parts[0]);
+                weight = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            int port = parsePort(parts[2]);
+            if (port <= 0) continue;
+            if (priority < selectedPriority || (priority == selectedPriority && weight > selectedWeight)) {
+                String target = parts[3].endsWith(".") ? parts[3].substring(0, parts[3].length() - 1) : parts[3];
+                selected = new Target(target, port);
+                selectedPriority = priority;
+                selectedWeight = weight;
+            }
+        }
+        return selected;
+    }
+
+    private static long remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) throw new SocketTimeoutException("Timed out waiting for the status response");
+        return remaining;
+    }
+
+    private static <T> T await(Future<T> future, long timeoutMillis) throws IOException, InterruptedException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new SocketTimeoutException("Timed out after " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package me.velyn.mcactivitymonitor.dataprovider;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * A source of the current status of Minecraft Java servers.
+ */
+public interface StatusProvider {
+
+    /**
+     * Fetches the status of the server. An unreachable server is reported as offline, an exception means the
+     * status could not be determined.
+     *
+     * @param address hostname or IP, optionally followed by {@code :port}
+     */
+    Status getStatus(String address) throws IOException, InterruptedException;
+
+    /**
+     * @param playersOnline {@code 0} if the server is offline
+     * @param retrievedAt   time the status was taken
+     */
+    record Status(boolean online, int playersOnline, Instant retrievedAt) {}
+
+    enum Type {
+        /**
+         * The <a href="https://mcstatus.io">mcstatus.io</a> API, rate limited per IP
+         */
+        MCSTATUS,
+        /**
+         * Server List Ping sent directly to the server
+         */
+        PING
+    }
+}
@@ -0,0 +1,48 @@
+package me.velyn.mcactivitymonitor.dataprovider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that refills at a fixed rate and holds at most {@code capacity} tokens.
+ * <p>
+ * Callers reserve a token and sleep until it becomes available, so waiting callers are served in the order they arrived
+ * and never exceed the configured rate. Meant to be called from virtual threads, where sleeping is cheap.
+ */
+public class TokenBucketRateLimiter {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    /**
+     * Point in time at which the bucket would be empty again if no further tokens were taken.
+     */
+    private long theoreticalArrival;
+
+    public TokenBucketRateLimiter(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond must be positive");
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = nanosPerToken * (Math.max(1, capacity) - 1);
+        this.theoreticalArrival = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a token is available and takes it.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token and returns how long to wait before it may be used.
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        if (theoreticalArrival - now < 0) {
+            theoreticalArrival = now;
+        }
+        long allowedAt = theoreticalArrival - burstNanos;
+        theoreticalArrival += nanosPerToken;
+        return Math.max(0, allowedAt - now);
+    }
+}
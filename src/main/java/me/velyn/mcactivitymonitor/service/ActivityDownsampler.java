@@ -0,0 +1,306 @@
+package me.velyn.mcactivitymonitor.service;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.data.ActivityRollup;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reduces the activity records of one server to at most a given number of points in a single pass.
+ * <p>
+ * Records have to be passed in creation time order. The number of records and the time span have to be known
+ * up front, which the storage can answer without reading the records.
+ */
+public abstract class ActivityDownsampler {
+
+    public enum Mode {
+        /**
+         * Keep the oldest records
+         */
+        FIRST,
+        /**
+         * Largest-Triangle-Three-Buckets, keeps the visual shape of the player count curve
+         */
+        LTTB,
+        /**
+         * Fixed-width time buckets with the average player count
+         */
+        AVG,
+        /**
+         * Fixed-width time buckets with the maximum player count
+         */
+        MAX
+    }
+
+    @FunctionalInterface
+    public interface Sink {
+        void accept(ActivityRecord record) throws IOException;
+    }
+
+    protected final Sink sink;
+
+    protected ActivityDownsampler(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @param maxPoints max number of emitted points, {@code 0} for no limit
+     * @param count     number of records that will be passed
+     * @param first     creation time of the first record
+     * @param last      creation time of the last record
+     */
+    public static ActivityDownsampler create(Mode mode, int maxPoints, long count, LocalDateTime first, LocalDateTime last, Sink sink) {
+        if (maxPoints <= 0 || count <= maxPoints) {
+            return new First(Long.MAX_VALUE, sink);
+        }
+        return switch (mode) {
+            case FIRST -> new First(maxPoints, sink);
+            case LTTB -> maxPoints < 3 ? new First(maxPoints, sink) : new Lttb(maxPoints, count, sink);
+            case AVG, MAX -> new TimeBuckets(mode == Mode.MAX, maxPoints, toEpochSecond(first), toEpochSecond(last), sink);
+        };
+    }
+
+    /**
+     * Reduces the rollups of one server, ordered by bucket start, to at most {@code maxPoints}. {@link Mode#FIRST}
+     * keeps the oldest ones like it does for records. The other modes merge neighbouring rollups into time buckets of
+     * equal width, which keeps the minimum, average and maximum player count a rollup already holds.
+     *
+     * @param maxPoints max number of returned rollups, {@code 0} for no limit
+     */
+    public static List<ActivityRollup> reduceRollups(Mode mode, int maxPoints, List<ActivityRollup> rollups) {
+        if (maxPoints <= 0 || rollups.size() <= maxPoints) return rollups;
+        if (mode == Mode.FIRST) return rollups.subList(0, maxPoints);
+        long first = toEpochSecond(rollups.getFirst().bucketStart);
+        long last = toEpochSecond(rollups.getLast().bucketStart);
+        long width = Math.max(1, (last - first) / maxPoints + 1);
+        List<ActivityRollup> reduced = new ArrayList<>(maxPoints);
+        ActivityRollup merged = null;
+        long bucket = -1;
+        for (ActivityRollup rollup : rollups) {
+            long b = Math.max(0, (toEpochSecond(rollup.bucketStart) - first) / width);
+            if (merged == null || b != bucket) {
+                merged = new ActivityRollup();
+                merged.server = rollup.server;
+                merged.bucketStart = rollup.bucketStart;
+                merged.minPlayers = rollup.minPlayers;
+                merged.maxPlayers = rollup.maxPlayers;
+                reduced.add(merged);
+                bucket = b;
+            }
+            long samples = (long) merged.sampleCount + rollup.sampleCount;
+            if (samples > 0) {
+                merged.uptimeRatio = (merged.uptimeRatio * merged.sampleCount + rollup.uptimeRatio * rollup.sampleCount) / samples;
+                merged.avgPlayers = (merged.avgPlayers * merged.sampleCount + rollup.avgPlayers * rollup.sampleCount) / samples;
+            }
+            merged.sampleCount = (int) samples;
+            merged.minPlayers = Math.min(merged.minPlayers, rollup.minPlayers);
+            merged.maxPlayers = Math.max(merged.maxPlayers, rollup.maxPlayers);
+        }
+        return reduced;
+    }
+
+    /**
+     * @return {@code false} if no further records are needed
+     */
+    public abstract boolean accept(ActivityRecord record) throws IOException;
+
+    /**
+     * Emits the remaining points after the last record was passed.
+     */
+    public abstract void finish() throws IOException;
+
+    private static long toEpochSecond(LocalDateTime ldt) {
+        return ldt != null ? ldt.toEpochSecond(ZoneOffset.UTC) : 0;
+    }
+
+    private static class First extends ActivityDownsampler {
+        private long remaining;
+
+        First(long maxPoints, Sink sink) {
+            super(sink);
+            this.remaining = maxPoints;
+        }
+
+        @Override
+        public boolean accept(ActivityRecord record) throws IOException {
+            if (remaining <= 0) return false;
+            sink.accept(record);
+            return --remaining > 0;
+        }
+
+        @Override
+        public void finish() {}
+    }
+
+    /**
+     * Streaming Largest-Triangle-Three-Buckets: the first and the last record are always kept, the records in between
+     * are split into {@code maxPoints - 2} buckets and from each bucket the record forming the largest triangle with the
+     * previously selected record and the average of the next bucket is kept. At most three buckets are held at a time.
+     */
+    private static class Lttb extends ActivityDownsampler {
+        private final long count;
+        private final int innerBuckets;
+        private final double bucketSize;
+        private final Deque<List<ActivityRecord>> completeBuckets = new ArrayDeque<>();
+        private List<ActivityRecord> currentBucket = new ArrayList<>();
+        private long currentBucketIndex = 0;
+        private long index = 0;
+        private ActivityRecord selected = null;
+        private ActivityRecord lastSeen = null;
+
+        Lttb(int maxPoints, long count, Sink sink) {
+            super(sink);
+            this.count = count;
+            this.innerBuckets = maxPoints - 2;
+            this.bucketSize = (double) (count - 2) / innerBuckets;
+        }
+
+        @Override
+        public boolean accept(ActivityRecord record) throws IOException {
+            lastSeen = record;
+            if (index == 0) {
+                emitSelected(record);
+            } else if (index == count - 1) {
+                finishWith(record);
+                index++;
+                return false;
+            } else {
+                long bucket = Math.min(innerBuckets - 1, (long) ((index - 1) / bucketSize));
+                if (bucket != currentBucketIndex) {
+                    completeBuckets.add(currentBucket);
+                    currentBucket = new ArrayList<>();
+                    currentBucketIndex = bucket;
+                    while (completeBuckets.size() >= 2) {
+                        List<ActivityRecord> bucketRecords = completeBuckets.poll();
+                        selectFrom(bucketRecords, average(completeBuckets.peek()));
+                    }
+                }
+                currentBucket.add(record);
+            }
+            index++;
+            return true;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // Fewer records than announced arrived, the last one seen takes the role of the last record
+            if (index > 0 && index < count && lastSeen != null) {
+                if (!currentBucket.isEmpty() && currentBucket.getLast() == lastSeen) {
+                    currentBucket.removeLast();
+                }
+                finishWith(lastSeen);
+            }
+        }
+
+        private void finishWith(ActivityRecord last) throws IOException {
+            if (!currentBucket.isEmpty()) completeBuckets.add(currentBucket);
+            currentBucket = new ArrayList<>();
+            while (!completeBuckets.isEmpty()) {
+                List<ActivityRecord> bucketRecords = completeBuckets.poll();
+                List<ActivityRecord> next = completeBuckets.peek();
+                selectFrom(bucketRecords, next != null ? average(next) : new double[]{x(last), last.playerCount});
+            }
+            emitSelected(last);
+        }
+
+        private void selectFrom(List<ActivityRecord> bucketRecords, double[] nextAverage) throws IOException {
+            if (bucketRecords.isEmpty()) return;
+            double ax = x(selected);
+            double ay = selected.playerCount;
+            ActivityRecord best = bucketRecords.getFirst();
+            double bestArea = -1;
+            for (ActivityRecord candidate : bucketRecords) {
+                double area = Math.abs((ax - nextAverage[0]) * (candidate.playerCount - ay)
+                        - (ax - x(candidate)) * (nextAverage[1] - ay));
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = candidate;
+                }
+            }
+            emitSelected(best);
+        }
+
+        private void emitSelected(ActivityRecord record) throws IOException {
+            selected = record;
+            sink.accept(record);
+        }
+
+        private static double[] average(List<ActivityRecord> records) {
+            double sumX = 0, sumY = 0;
+            for (ActivityRecord r : records) {
+                sumX += x(r);
+                sumY += r.playerCount;
+            }
+            return new double[]{sumX / records.size(), sumY / records.size()};
+        }
+
+        private static double x(ActivityRecord r) {
+            return toEpochSecond(r.recordCreationTime);
+        }
+    }
+
+    /**
+     * Splits the time span into {@code maxPoints} buckets of equal width and emits one aggregated record per non-empty bucket,
+     * timestamped with the bucket start. The record is online if the server was online in the majority of the bucket.
+     */
+    private static class TimeBuckets extends ActivityDownsampler {
+        private final boolean max;
+        private final long start;
+        private final long width;
+        private String server;
+        private long bucket = -1;
+        private int samples = 0;
+        private int onlineSamples = 0;
+        private long playerSum = 0;
+        private int playerMax = 0;
+
+        TimeBuckets(boolean max, int maxPoints, long first, long last, Sink sink) {
+            super(sink);
+            this.max = max;
+            this.start = first;
+            this.width = Math.max(1, (last - first) / maxPoints + 1);
+        }
+
+        @Override
+        public boolean accept(ActivityRecord record) throws IOException {
+            long b = Math.max(0, (toEpochSecond(record.recordCreationTime) - start) / width);
+            if (b != bucket) {
+                emitBucket();
+                bucket = b;
+            }
+            server = record.server;
+            samples++;
+            if (record.online) onlineSamples++;
+            playerSum += record.playerCount;
+            playerMax = Math.max(playerMax, record.playerCount);
+            return true;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            emitBucket();
+        }
+
+        private void emitBucket() throws IOException {
+            if (samples == 0) return;
+            LocalDateTime time = LocalDateTime.ofEpochSecond(start + bucket * width, 0, ZoneOffset.UTC);
+            ActivityRecord acc = new ActivityRecord();
+            acc.recordCreationTime = time;
+            acc.dataRetrievalTime = time;
+            acc.online = onlineSamples > samples / 2;
+            acc.server = server;
+            acc.playerCount = max ? playerMax : (int) Math.round((double) playerSum / samples);
+            sink.accept(acc);
+            samples = 0;
+            onlineSamples = 0;
+            playerSum = 0;
+            playerMax = 0;
+        }
+    }
+}
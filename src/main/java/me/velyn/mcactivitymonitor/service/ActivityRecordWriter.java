@@ -0,0 +1,141 @@
+package me.velyn.mcactivitymonitor.service;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects new activity records on a bounded queue and writes them in batches from a single thread.
+ * <p>
+ * A batch is committed once it reaches {@code storage.activity.writer.batch-size} records or the first record
+ * in it waited {@code storage.activity.writer.commit-interval} milliseconds, whichever comes first.
+ * Producers block while the queue is full. Remaining records are written on shutdown.
+ */
+@ApplicationScoped
+public class ActivityRecordWriter {
+
+    @Inject
+    DataStorageService dataStorageService;
+
+    @ConfigProperty(name = "storage.activity.writer.queue-size", defaultValue = "10000")
+    int queueSize;
+
+    @ConfigProperty(name = "storage.activity.writer.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "storage.activity.writer.commit-interval", defaultValue = "1000")
+    long commitIntervalMillis;
+
+    /**
+     * Whether every committed batch is forced to the storage device
+     */
+    @ConfigProperty(name = "storage.activity.writer.fsync", defaultValue = "false")
+    boolean fsync;
+
+    private BlockingQueue<ActivityRecord> queue;
+    private Thread writerThread;
+    private volatile boolean running = false;
+
+    void onStart(@Observes StartupEvent ev) {
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        running = true;
+        writerThread = Thread.ofPlatform().name("activity-record-writer").daemon().start(this::run);
+    }
+
+    /**
+     * Runs after the scheduler stopped submitting records and before the storage is closed
+     */
+    static final int SHUTDOWN_PRIORITY = DataStorageService.SHUTDOWN_PRIORITY - 100;
+
+    void onStop(@Observes @Priority(SHUTDOWN_PRIORITY) ShutdownEvent ev) {
+        running = false;
+        Thread thread = writerThread;
+        if (thread == null) return;
+        // Not interrupted right away, an interrupt during a write closes the segment channel and loses the batch.
+        // The thread notices the flag after its current batch, or when its poll times out.
+        try {
+            thread.join(commitIntervalMillis + TimeUnit.SECONDS.toMillis(30));
+            if (thread.isAlive()) {
+                Log.warn("Activity record writer did not stop in time, interrupting it");
+                thread.interrupt();
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Records submitted while the writer thread was stopping
+        List<ActivityRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        commit(remaining);
+        dataStorageService.closeActivityRecords();
+    }
+
+    /**
+     * Queues the record for writing, blocking while the queue is full.
+     * Before the writer is started or after it was stopped the record is written right away.
+     */
+    public void submit(ActivityRecord record) {
+        if (record == null) return;
+        if (running) {
+            try {
+                queue.put(record);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.warnf("Interrupted while queueing activity record of '%s', writing it directly", record.server);
+            }
+        }
+        commit(List.of(record));
+    }
+
+    private void run() {
+        List<ActivityRecord> batch = new ArrayList<>();
+        try {
+            while (running) {
+                ActivityRecord first = queue.poll(commitIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+                while (batch.size() < batchSize && running) {
+                    // Take what is already there without waiting
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    ActivityRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Only interrupted if it did not stop in time, the collected records are written below
+        }
+        queue.drainTo(batch);
+        commit(batch);
+    }
+
+    private void commit(List<ActivityRecord> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            dataStorageService.writeActivityRecords(batch);
+            if (fsync) {
+                dataStorageService.syncActivityRecords();
+            }
+        } catch (RuntimeException e) {
+            Log.errorf(e, "Failed to write %d activity records", batch.size());
+        }
+    }
+}
@@ -1,53 +1,188 @@
 package me.velyn.mcactivitymonitor.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import me.velyn.mcactivitymonitor.data.ActivityRecord;
 import me.velyn.mcactivitymonitor.data.ServerRecord;
-import me.velyn.mcactivitymonitor.dataprovider.McStatusIoV2Client;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import me.velyn.mcactivitymonitor.dataprovider.CircuitBreaker;
+import me.velyn.mcactivitymonitor.dataprovider.McStatusIoStatusProvider;
+import me.velyn.mcactivitymonitor.dataprovider.ServerListPingStatusProvider;
+import me.velyn.mcactivitymonitor.dataprovider.StatusProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.time.Instant;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @ApplicationScoped
 public class DataProcessingService {
 
-    @RestClient
-    McStatusIoV2Client mcStatusIoV2Client;
+    @Inject
+    McStatusIoStatusProvider mcStatusIoStatusProvider;
 
-    public List<ActivityRecord> checkServers(List<ServerRecord> servers) {
-        return servers.stream()
-                      .map(sr -> checkServer(sr.server))
-                      .filter(Optional::isPresent)
-                      .map(Optional::get)
-                      .toList();
+    @Inject
+    ServerListPingStatusProvider serverListPingStatusProvider;
+
+    @Inject
+    DataStorageService dataStorageService;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @ConfigProperty(name = "dataprovider.provider", defaultValue = "MCSTATUS")
+    StatusProvider.Type defaultProviderType;
+
+    /**
+     * Servers that use another provider than the default one, as {@code server=PROVIDER} entries
+     */
+    @ConfigProperty(name = "dataprovider.provider.overrides")
+    Optional<List<String>> providerOverrides;
+
+    /**
+     * Failed checks in a row after which the checks of a server are suspended
+     */
+    @ConfigProperty(name = "dataprovider.circuit-breaker.failure-threshold", defaultValue = "3")
+    int breakerFailureThreshold;
+
+    /**
+     * Seconds the checks are suspended for the first time, doubled after every failed trial check
+     */
+    @ConfigProperty(name = "dataprovider.circuit-breaker.open-duration", defaultValue = "300")
+    long breakerOpenSeconds;
+
+    @ConfigProperty(name = "dataprovider.circuit-breaker.max-open-duration", defaultValue = "21600")
+    long breakerMaxOpenSeconds;
+
+    private final Map<String, StatusProvider.Type> providerTypes = new HashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        for (String entry : providerOverrides.orElse(List.of())) {
+            int sep = entry.lastIndexOf('=');
+            try {
+                if (sep <= 0) throw new IllegalArgumentException("missing '='");
+                providerTypes.put(entry.substring(0, sep).trim(),
+                        StatusProvider.Type.valueOf(entry.substring(sep + 1).trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                Log.errorf("Ignoring invalid status provider override '%s', expected server=MCSTATUS or server=PING", entry);
+            }
+        }
     }
 
+    /**
+     * Whether the server may be checked now, which its circuit breaker decides. An allowed check has to be run with
+     * {@link #checkServer(String)} or given up with {@link #releaseCheck(String)}, a half-open breaker lets no other
+     * check through until then.
+     */
+    public boolean tryAcquireCheck(String server) {
+        if (breakerOf(server).tryAcquire(LocalDateTime.now())) return true;
+        Log.debugf("Skipping check of server '%s', its checks are suspended", server);
+        return false;
+    }
+
+    /**
+     * Gives up a check allowed by {@link #tryAcquireCheck(String)} without running it.
+     */
+    public void releaseCheck(String server) {
+        breakerOf(server).release();
+    }
+
+    /**
+     * Checks the status of the server. The check has to be allowed by {@link #tryAcquireCheck(String)} first.
+     *
+     * @return empty if the check failed
+     */
     public Optional<ActivityRecord> checkServer(String server) {
+        CircuitBreaker breaker = breakerOf(server);
+        StatusProvider.Type type = providerTypes.getOrDefault(server, defaultProviderType);
+        StatusProvider provider = switch (type) {
+            case MCSTATUS -> mcStatusIoStatusProvider;
+            case PING -> serverListPingStatusProvider;
+        };
+        String providerTag = type.name().toLowerCase(Locale.ROOT);
+
         Log.infof("Checking server '%s'", server);
-        McStatusIoV2Client.JavaStatus status;
+        StatusProvider.Status status;
+        Timer.Sample request = Timer.start(meterRegistry);
         try {
-            status = mcStatusIoV2Client.getStatusJava(server, false);
+            status = provider.getStatus(server);
+            request.stop(meterRegistry.timer("dataprovider.status.request", "server", server, "provider", providerTag, "outcome", "success"));
+        } catch (InterruptedException e) {
+            breaker.release();
+            Thread.currentThread().interrupt();
+            return Optional.empty();
         } catch (Exception e) {
-            Log.errorf("Error checking server '%s'", server, e);
+            request.stop(meterRegistry.timer("dataprovider.status.request", "server", server, "provider", providerTag, "outcome", "error"));
+            breaker.onFailure(LocalDateTime.now(), e.toString());
+            dataStorageService.dataChanged();
+            CircuitBreaker.Snapshot state = breaker.snapshot();
+            if (state.state() == ServerRecord.CheckState.OPEN) {
+                Log.errorf("Error checking server '%s', %d failures in a row, suspending checks until %s",
+                        server, state.consecutiveFailures(), state.retryAt(), e);
+            } else {
+                Log.errorf("Error checking server '%s'", server, e);
+            }
             return Optional.empty();
         }
+        if (breaker.onSuccess()) {
+            dataStorageService.dataChanged();
+        }
 
         ActivityRecord rec = new ActivityRecord();
         rec.recordCreationTime = LocalDateTime.now();
-        rec.dataRetrievalTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(status.retrieved_at), ZoneId.systemDefault());
-        rec.online = status.online;
+        rec.dataRetrievalTime = LocalDateTime.ofInstant(status.retrievedAt(), ZoneId.systemDefault());
+        rec.online = status.online();
         rec.server = server;
-        if (status.online) {
-            rec.playerCount = status.players.online;
+        if (status.online()) {
+            rec.playerCount = status.playersOnline();
             Log.infof("Server '%s' is online with %d players", server, rec.playerCount);
         } else {
             Log.infof("Server '%s' is offline", server);
         }
         return Optional.of(rec);
     }
+
+    private CircuitBreaker breakerOf(String server) {
+        return breakers.computeIfAbsent(server, s -> new CircuitBreaker(breakerFailureThreshold,
+                Duration.ofSeconds(breakerOpenSeconds), Duration.ofSeconds(breakerMaxOpenSeconds)));
+    }
+
+    /**
+     * State of the circuit breaker of the server's checks.
+     */
+    public CircuitBreaker.Snapshot getCheckHealth(String server) {
+        CircuitBreaker breaker = breakers.get(server);
+        return breaker != null ? breaker.snapshot() : CircuitBreaker.Snapshot.CLOSED;
+    }
+
+    /**
+     * Copy of the server record with the state of its circuit breaker, registry records are never modified.
+     */
+    public ServerRecord withCheckHealth(ServerRecord sr) {
+        CircuitBreaker.Snapshot health = getCheckHealth(sr.server);
+        ServerRecord copy = new ServerRecord();
+        copy.server = sr.server;
+        copy.lastFetchTime = sr.lastFetchTime;
+        copy.checkState = health.state();
+        copy.consecutiveFailures = health.consecutiveFailures();
+        copy.nextRetryTime = health.retryAt();
+        copy.lastError = health.lastError();
+        return copy;
+    }
+
+    /**
+     * Forgets the failures of servers that are no longer tracked.
+     */
+    public void retainCheckHealth(Collection<ServerRecord> servers) {
+        Set<String> tracked = new HashSet<>();
+        servers.forEach(sr -> tracked.add(sr.server));
+        breakers.keySet().retainAll(tracked);
+    }
 }
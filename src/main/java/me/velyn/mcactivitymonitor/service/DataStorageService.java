@@ -1,25 +1,54 @@
 package me.velyn.mcactivitymonitor.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.interceptor.Interceptor;
 import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.data.ActivityRollup;
 import me.velyn.mcactivitymonitor.data.ServerRecord;
+import me.velyn.mcactivitymonitor.service.storage.ActivityCsvParser;
+import me.velyn.mcactivitymonitor.service.storage.ActivityRollupStore;
+import me.velyn.mcactivitymonitor.service.storage.ActivitySegments;
+import me.velyn.mcactivitymonitor.service.storage.ActivitySeriesStore;
+import me.velyn.mcactivitymonitor.service.storage.ActivityStatistics;
+import me.velyn.mcactivitymonitor.service.storage.ActivityTimeIndex;
+import me.velyn.mcactivitymonitor.service.storage.BinaryActivityRecordFile;
+import me.velyn.mcactivitymonitor.service.storage.ParallelSegmentScan;
+import me.velyn.mcactivitymonitor.service.storage.ReverseLineReader;
+import me.velyn.mcactivitymonitor.service.storage.SegmentAppender;
+import me.velyn.mcactivitymonitor.service.storage.ServerDictionary;
+import me.velyn.mcactivitymonitor.service.storage.ServerRegistry;
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.csv.CSVRecord;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.io.Reader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @ApplicationScoped
 public class DataStorageService {
@@ -32,296 +61,1325 @@ public class DataStorageService {
     @ConfigProperty(name = "storage.file.activity.records")
     String activityRecordsFilePath;
 
-    private volatile Set<ServerRecord> serversCache = null;
-    private volatile long serversCacheMtime = -1;
+    @ConfigProperty(name = "storage.activity.memory.enabled", defaultValue = "true")
+    boolean activityMemoryStoreEnabled;
+
+    @ConfigProperty(name = "storage.activity.segment.period", defaultValue = "MONTH")
+    ActivitySegments.Period activitySegmentPeriod;
+
+    @ConfigProperty(name = "storage.activity.format", defaultValue = "CSV")
+    ActivitySegments.Format activityFormat;
+
+    /**
+     * Threads parsing CSV segments in parallel, {@code 0} for one per core.
+     */
+    @ConfigProperty(name = "storage.activity.scan.parallelism", defaultValue = "0")
+    int activityScanParallelism;
+
+    @ConfigProperty(name = "storage.activity.scan.chunk-size", defaultValue = "8388608")
+    long activityScanChunkSize;
+
+    /**
+     * Days raw activity records are kept before only their rollups remain, {@code 0} to keep them forever.
+     */
+    @ConfigProperty(name = "storage.activity.retention.days", defaultValue = "0")
+    int activityRetentionDays;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final Object serverRegistryLock = new Object();
+    private volatile ServerRegistry serverRegistry = null;
+    private volatile ServerDictionary serverDictionary = null;
+
+    private final Object activityStoreLock = new Object();
+    // Package-private so tests can hold it to check that readers are not blocked by a write
+    final Object activityWriteLock = new Object();
+    private volatile ActivitySeriesStore activityStore = null;
+    private volatile ActivitySegments activitySegments = null;
+    private final Map<Path, ActivityTimeIndex> activityTimeIndexes = new ConcurrentHashMap<>();
+    // Held for reading while segments are listed and read, for writing while compaction replaces or deletes one, so
+    // readers see a segment with its own index and size. Readers take it before the other locks.
+    private final ReadWriteLock activitySegmentReplaceLock = new ReentrantReadWriteLock();
+    private volatile Map<ActivityRollupStore.Resolution, ActivityRollupStore> activityRollups = null;
+    private volatile ActivityStatistics activityStatistics = null;
+    private final SegmentAppender activitySegmentAppender = new SegmentAppender();
+    private final Map<String, ActivityRecord> latestActivityRecords = new ConcurrentHashMap<>();
+    private volatile boolean latestActivityRecordsLoaded = false;
+    private final Object activityScanPoolLock = new Object();
+    private volatile ForkJoinPool activityScanPool = null;
+    private final Object activityCompactionLock = new Object();
+    private volatile CompactionReport lastCompactionReport = null;
+    private final List<DataChangeListener> dataChangeListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong dataVersion = new AtomicLong();
+    private volatile Instant dataModified = Instant.now();
+
+    void onStart(@Observes StartupEvent ev) {
+        getServerRegistry();
+        ActivitySegments segments = getActivitySegments();
+        if (segments.getFormat() == ActivitySegments.Format.CSV) {
+            // Rebuilds missing or stale indexes
+            try {
+                for (ActivitySegments.Segment segment : segments.list()) {
+                    getActivityTimeIndex(segment.path());
+                }
+            } catch (IOException e) {
+                Log.error("Failed to list activity record segments", e);
+            }
+        }
+        if (activityMemoryStoreEnabled) {
+            getActivityStore();
+        }
+        getActivityStatistics();
+        getActivityRollupStores();
+        loadLatestActivityRecords();
+    }
+
+    /**
+     * Runs after the scheduler and the activity record writer, which still write through this service while stopping
+     */
+    static final int SHUTDOWN_PRIORITY = Interceptor.Priority.APPLICATION + 1000;
+
+    void onStop(@Observes @Priority(SHUTDOWN_PRIORITY) ShutdownEvent ev) {
+        closeActivityRecords();
+        closeServerRegistry();
+        ForkJoinPool pool = activityScanPool;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    // ---------------------
+    // Data version
+    // ---------------------
+
+    /**
+     * Version of the stored data as of a point in time, see {@link #getDataVersion()}.
+     *
+     * @param version  starts at {@code 0} with every start of the application
+     * @param modified time of the last change, or of the start if nothing changed since
+     */
+    public record DataVersion(long version, Instant modified) {}
+
+    /**
+     * Returns the current data version. It changes with every write of activity records and every change of the
+     * tracked servers, so anything computed from the data is still valid as long as the version is the same.
+     */
+    public DataVersion getDataVersion() {
+        // Read the version first, a change in between only makes the time newer than the version
+        long version = dataVersion.get();
+        return new DataVersion(version, dataModified);
+    }
+
+    /**
+     * Starts a new data version. Called for every change of the stored data, and by other services when something
+     * they add to it changes, like the check state of a server.
+     *
+     * @return the new version
+     */
+    public long dataChanged() {
+        dataModified = Instant.now();
+        return dataVersion.incrementAndGet();
+    }
+
+    // ---------------------
+    // Change events
+    // ---------------------
+
+    /**
+     * A batch of activity records that was written.
+     *
+     * @param version data version that includes the records
+     */
+    public record ActivityRecordsWritten(long version, List<ActivityRecord> records) {}
+
+    public enum ServerChange { ADDED, REMOVED, FETCHED }
+
+    /**
+     * A tracked server that was added, removed or whose fetch time was updated.
+     *
+     * @param version       data version that includes the change
+     * @param lastFetchTime {@code null} unless the server was fetched
+     */
+    public record ServerChanged(long version, ServerChange change, String server, LocalDateTime lastFetchTime) {}
+
+    /**
+     * Receives the changes of the stored data right after they are committed, on the thread that made them and in
+     * the order they were made. Implementations must not block, they delay the next write.
+     */
+    public interface DataChangeListener {
+        default void activityRecordsWritten(ActivityRecordsWritten event) {}
+
+        default void serverChanged(ServerChanged event) {}
+    }
+
+    public void addDataChangeListener(DataChangeListener listener) {
+        dataChangeListeners.add(listener);
+    }
+
+    public void removeDataChangeListener(DataChangeListener listener) {
+        dataChangeListeners.remove(listener);
+    }
+
+    private void fireActivityRecordsWritten(long version, List<ActivityRecord> records) {
+        if (dataChangeListeners.isEmpty()) return;
+        ActivityRecordsWritten event = new ActivityRecordsWritten(version, List.copyOf(records));
+        for (DataChangeListener listener : dataChangeListeners) {
+            try {
+                listener.activityRecordsWritten(event);
+            } catch (RuntimeException e) {
+                Log.error("Failed to notify about written activity records", e);
+            }
+        }
+    }
+
+    private void fireServerChanged(long version, ServerChange change, String server, LocalDateTime lastFetchTime) {
+        if (dataChangeListeners.isEmpty()) return;
+        ServerChanged event = new ServerChanged(version, change, server, lastFetchTime);
+        for (DataChangeListener listener : dataChangeListeners) {
+            try {
+                listener.serverChanged(event);
+            } catch (RuntimeException e) {
+                Log.error("Failed to notify about the change of server " + server, e);
+            }
+        }
+    }
 
     // ---------------------
     // Activity records
     // ---------------------
 
-    public long getActivityRecordsCount() {
-        Path path = Paths.get(activityRecordsFilePath);
-        if (!Files.exists(path)) return 0;
-        try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
-            return lines.count();
+    /**
+     * Returns the hourly and daily rollups, loading them on first access and replaying the records that were
+     * written after the last persisted bucket.
+     */
+    private Map<ActivityRollupStore.Resolution, ActivityRollupStore> getActivityRollupStores() {
+        Map<ActivityRollupStore.Resolution, ActivityRollupStore> rollups = activityRollups;
+        if (rollups != null) return rollups;
+        ActivitySegments segments = getActivitySegments();
+        activitySegmentReplaceLock.readLock().lock();
+        try {
+            synchronized (activityStoreLock) {
+                if (activityRollups == null) {
+                    long start = System.currentTimeMillis();
+                    Map<ActivityRollupStore.Resolution, ActivityRollupStore> loaded = new EnumMap<>(ActivityRollupStore.Resolution.class);
+                    long replayFrom = Long.MAX_VALUE;
+                    for (ActivityRollupStore.Resolution resolution : ActivityRollupStore.Resolution.values()) {
+                        Path path = segments.getDirectory().resolve(segments.getBaseName() + "-rollup-"
+                                + resolution.name().toLowerCase(Locale.ROOT) + ".csv");
+                        try {
+                            ActivityRollupStore store = ActivityRollupStore.load(resolution, path);
+                            loaded.put(resolution, store);
+                            replayFrom = Math.min(replayFrom, store.getSealedUntil());
+                        } catch (IOException | RuntimeException e) {
+                            throw new IllegalStateException("Failed to load activity rollups from " + path, e);
+                        }
+                    }
+
+                    LocalDateTime from = replayFrom == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(replayFrom, 0, ZoneOffset.UTC);
+                    readActivityRecordSegments(new ActivityRecordFilter(from, null, null), ar -> {
+                        long creationTime = ar.recordCreationTime != null ? ar.recordCreationTime.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+                        for (ActivityRollupStore store : loaded.values()) {
+                            if (creationTime >= store.getSealedUntil()) {
+                                store.add(ar.server, creationTime, ar.online, ar.playerCount);
+                            }
+                        }
+                    });
+                    sealActivityRollups(loaded.values());
+                    activityRollups = loaded;
+                    Log.infof("Loaded activity rollups in %d ms", System.currentTimeMillis() - start);
+                }
+                return activityRollups;
+            }
+        } finally {
+            activitySegmentReplaceLock.readLock().unlock();
+        }
+    }
+
+    private static void sealActivityRollups(Collection<ActivityRollupStore> rollups) {
+        long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        for (ActivityRollupStore store : rollups) {
+            try {
+                store.seal(now);
+            } catch (IOException e) {
+                Log.error("Failed to persist " + store.getResolution() + " activity rollups", e);
+            }
+        }
+    }
+
+    public List<ActivityRollup> getActivityRollups(ActivityRollupStore.Resolution resolution, ActivityRecordFilter filter) {
+        ActivityRollupStore store = getActivityRollupStores().get(resolution);
+        return filter == null
+                ? store.query(null, null, null)
+                : store.query(filter.from(), filter.to(), filter.server());
+    }
+
+    /**
+     * Fills the latest-record-per-server cache for all tracked servers, once.
+     */
+    private void loadLatestActivityRecords() {
+        if (latestActivityRecordsLoaded) return;
+        synchronized (latestActivityRecords) {
+            if (latestActivityRecordsLoaded) return;
+            Set<String> servers = new HashSet<>();
+            for (ServerRecord sr : getServers()) {
+                servers.add(sr.server);
+            }
+            readLastActivityRecords(servers).forEach((server, record) ->
+                    latestActivityRecords.merge(server, record, DataStorageService::newerActivityRecord));
+            latestActivityRecordsLoaded = true;
+        }
+    }
+
+    private static ActivityRecord newerActivityRecord(ActivityRecord a, ActivityRecord b) {
+        if (a.recordCreationTime == null) return b;
+        if (b.recordCreationTime == null) return a;
+        return b.recordCreationTime.isBefore(a.recordCreationTime) ? a : b;
+    }
+
+    /**
+     * Returns the in-memory activity store, loading it from the activity segments on first access.
+     */
+    private ActivitySeriesStore getActivityStore() {
+        ActivitySeriesStore store = activityStore;
+        if (store != null) return store;
+        ActivitySegments segments = getActivitySegments();
+        activitySegmentReplaceLock.readLock().lock();
+        try {
+            synchronized (activityStoreLock) {
+                if (activityStore == null) {
+                    long start = System.currentTimeMillis();
+                    ActivitySeriesStore loaded = new ActivitySeriesStore(getServerDictionary());
+                    if (segments.getFormat() == ActivitySegments.Format.BINARY) {
+                        // Binary segments share the ids of the store, names are never looked up
+                        scanBinaryActivityRecordSegments(null, loaded::append);
+                    } else {
+                        readActivityRecordSegments(null, loaded::append);
+                    }
+                    activityStore = loaded;
+                    Log.infof("Loaded %d activity records into memory in %d ms",
+                            loaded.getCount(), System.currentTimeMillis() - start);
+                }
+                return activityStore;
+            }
+        } finally {
+            activitySegmentReplaceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the activity segment layout of the configured format.
+     * On first access a legacy single activity records file and segments of the other format are converted.
+     */
+    private ActivitySegments getActivitySegments() {
+        ActivitySegments segments = activitySegments;
+        if (segments != null) return segments;
+        synchronized (activityStoreLock) {
+            if (activitySegments == null) {
+                Path legacyFile = Paths.get(activityRecordsFilePath);
+                String baseName = activityRecordsBaseName();
+                Path dir = activityRecordsDirectory();
+
+                ActivitySegments created = new ActivitySegments(dir, baseName, activitySegmentPeriod, activityFormat);
+                migrateLegacyActivityRecordsFile(legacyFile, created);
+                for (ActivitySegments.Format other : ActivitySegments.Format.values()) {
+                    if (other != activityFormat) {
+                        convertActivitySegments(new ActivitySegments(dir, baseName, activitySegmentPeriod, other), created);
+                    }
+                }
+                activitySegments = created;
+            }
+            return activitySegments;
+        }
+    }
+
+    /**
+     * Base name of the segment files, the activity records file name without {@code .csv}.
+     */
+    private String activityRecordsBaseName() {
+        String fileName = Paths.get(activityRecordsFilePath).getFileName().toString();
+        return fileName.endsWith(".csv") ? fileName.substring(0, fileName.length() - 4) : fileName;
+    }
+
+    /**
+     * Directory of the segment files, next to the activity records file.
+     */
+    private Path activityRecordsDirectory() {
+        Path legacyFile = Paths.get(activityRecordsFilePath);
+        String fileName = legacyFile.getFileName().toString();
+        String baseName = activityRecordsBaseName();
+        String dirName = baseName.equals(fileName) ? baseName + ".d" : baseName;
+        return legacyFile.toAbsolutePath().getParent().resolve(dirName);
+    }
+
+    private void migrateLegacyActivityRecordsFile(Path legacyFile, ActivitySegments segments) {
+        if (!Files.exists(legacyFile)) return;
+        try {
+            if (!segments.list().isEmpty()) {
+                Log.warnf("Not migrating '%s', activity segments already exist in '%s'", legacyFile, segments.getDirectory());
+                return;
+            }
         } catch (IOException e) {
-            Log.error("Failed to read activity records", e);
-            return 0;
+            Log.error("Failed to list activity record segments", e);
+            return;
         }
+        Log.infof("Migrating '%s' into activity segments in '%s'", legacyFile, segments.getDirectory());
+        long migrated = copyActivityRecords(consumer -> readActivityRecordsFile(legacyFile, consumer), segments);
+        if (migrated < 0) {
+            Log.error("Migration of activity records failed, keeping the legacy file in place");
+            return;
+        }
+        markMigrated(legacyFile);
+        Log.infof("Migrated %d activity records from '%s'", migrated, legacyFile);
     }
 
-    public long getDistinctDaysCount() {
-        Path path = Paths.get(activityRecordsFilePath);
-        if (!Files.exists(path)) return 0;
-        try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
-            return lines.map(ln -> parseActivityRecordLine(ln, null))
-                    .filter(Objects::nonNull)
-                    .map(ar -> ar.dataRetrievalTime.toLocalDate())
-                    .distinct()
-                    .count();
+    /**
+     * Imports segments of another format (e.g. CSV files dropped into the segment directory) into the configured format.
+     */
+    private void convertActivitySegments(ActivitySegments source, ActivitySegments target) {
+        List<ActivitySegments.Segment> sourceSegments;
+        try {
+            sourceSegments = source.list();
+        } catch (IOException e) {
+            Log.error("Failed to list activity record segments", e);
+            return;
+        }
+        for (ActivitySegments.Segment segment : sourceSegments) {
+            Log.infof("Converting activity segment '%s' to %s", segment.path(), target.getFormat());
+            long converted = copyActivityRecords(consumer -> readActivitySegmentFile(source, segment.path(), consumer), target);
+            if (converted < 0) {
+                Log.errorf("Conversion of activity segment '%s' failed, keeping it in place", segment.path());
+                continue;
+            }
+            markMigrated(segment.path());
+        }
+    }
+
+    /**
+     * Copies all records supplied by {@code reader} into {@code target} in batches.
+     *
+     * @return the number of copied records, or {@code -1} if reading or writing failed
+     */
+    private long copyActivityRecords(Function<Consumer<ActivityRecord>, Boolean> reader, ActivitySegments target) {
+        List<ActivityRecord> batch = new ArrayList<>();
+        long[] copied = {0};
+        boolean[] writeOk = {true};
+        boolean readOk = reader.apply(ar -> {
+            truncateToSeconds(ar);
+            batch.add(ar);
+            if (batch.size() >= 10_000) {
+                copied[0] += batch.size();
+                writeOk[0] &= appendToActivitySegments(target, batch, null);
+                batch.clear();
+            }
+        });
+        copied[0] += batch.size();
+        writeOk[0] &= appendToActivitySegments(target, batch, null);
+        return readOk && writeOk[0] ? copied[0] : -1;
+    }
+
+    private void markMigrated(Path file) {
+        try {
+            Path migratedFile = file.resolveSibling(file.getFileName() + ".migrated");
+            Files.move(file, migratedFile, StandardCopyOption.REPLACE_EXISTING);
+            activityTimeIndexes.remove(file);
+            Files.deleteIfExists(ActivityTimeIndex.indexPathOf(file));
+        } catch (IOException e) {
+            Log.error("Failed to rename migrated activity records file " + file, e);
+        }
+    }
+
+    /**
+     * Returns the activity statistics, restoring them from the snapshot on first access and reading only
+     * the segments that changed since the snapshot was taken.
+     */
+    private ActivityStatistics getActivityStatistics() {
+        ActivityStatistics statistics = activityStatistics;
+        if (statistics != null) return statistics;
+        ActivitySegments segments = getActivitySegments();
+        activitySegmentReplaceLock.readLock().lock();
+        try {
+            synchronized (activityStoreLock) {
+                if (activityStatistics == null) {
+                    long start = System.currentTimeMillis();
+                    Path path = segments.getDirectory().resolve(segments.getBaseName() + "-statistics.csv");
+                    ActivityStatistics loaded;
+                    try {
+                        loaded = ActivityStatistics.load(path);
+                    } catch (IOException | RuntimeException e) {
+                        Log.error("Failed to load activity statistics from " + path + ", collecting them again", e);
+                        try {
+                            Files.deleteIfExists(path);
+                            loaded = ActivityStatistics.load(path);
+                        } catch (IOException ex) {
+                            throw new IllegalStateException("Failed to reset activity statistics", ex);
+                        }
+                    }
+
+                    int refreshed = 0;
+                    try {
+                        List<ActivitySegments.Segment> list = segments.list();
+                        loaded.retainSegments(list.stream().map(ActivitySegments.Segment::path).toList());
+                        for (ActivitySegments.Segment segment : list) {
+                            long size = Files.size(segment.path());
+                            if (loaded.isUpToDate(segment.path(), size)) continue;
+                            ActivityStatistics target = loaded;
+                            target.resetSegment(segment.path());
+                            readActivitySegmentFile(segments, segment.path(), ar -> target.add(segment.path(), ar));
+                            target.setSize(segment.path(), size);
+                            refreshed++;
+                        }
+                    } catch (IOException e) {
+                        Log.error("Failed to list activity record segments", e);
+                    }
+                    if (refreshed > 0) {
+                        saveActivityStatistics(loaded);
+                    }
+                    activityStatistics = loaded;
+                    Log.infof("Loaded activity statistics in %d ms, %d segments read", System.currentTimeMillis() - start, refreshed);
+                }
+                return activityStatistics;
+            }
+        } finally {
+            activitySegmentReplaceLock.readLock().unlock();
+        }
+    }
+
+    private static void saveActivityStatistics(ActivityStatistics statistics) {
+        if (statistics == null) return;
+        try {
+            statistics.save();
         } catch (IOException e) {
-            Log.error("Failed to read activity records", e);
-            return 0;
+            Log.error("Failed to persist activity statistics", e);
         }
     }
 
+    /**
+     * Forces the written activity records to the storage device.
+     */
+    public void syncActivityRecords() {
+        try {
+            activitySegmentAppender.force();
+        } catch (IOException e) {
+            Log.error("Failed to sync activity records", e);
+        }
+    }
+
+    /**
+     * Closes the open activity segment and persists the statistics. A later write opens the segment again.
+     */
+    public void closeActivityRecords() {
+        synchronized (activityWriteLock) {
+            try {
+                activitySegmentAppender.close();
+            } catch (IOException e) {
+                Log.error("Failed to close activity segment", e);
+            }
+            saveActivityStatistics(activityStatistics);
+        }
+    }
+
+    public long getActivityRecordsCount() {
+        return getActivityStatistics().getCount();
+    }
+
+    public long getDistinctDaysCount() {
+        return getActivityStatistics().getDistinctDaysCount();
+    }
+
+    /**
+     * Record count and first/last record creation time of every server with recorded activity.
+     */
+    public List<ActivityStatistics.ServerStatistics> getActivityServerStatistics() {
+        return getActivityStatistics().getServerStatistics();
+    }
+
+    /**
+     * Size of the activity record segments in bytes.
+     */
+    public long getActivityRecordsSize() {
+        return getActivityStatistics().getSize();
+    }
+
+    /**
+     * Writes the records to the segments and the in-memory stores. Their times are truncated to whole seconds first,
+     * the precision of the binary segments and the in-memory history, so every read returns the same times.
+     */
     public void writeActivityRecords(List<ActivityRecord> records) {
         if (records == null || records.isEmpty()) {
             return;
         }
-        Path path = Paths.get(activityRecordsFilePath);
-        ensureParentDirExists(path);
-
-        boolean exists = Files.exists(path);
-        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-            CSVFormat format = csvFormatActivity(exists);
-            try (CSVPrinter printer = new CSVPrinter(writer, format)) {
-                for (ActivityRecord r : records) {
-                    printer.printRecord(
-                            r.recordCreationTime != null ? ISO_DATE_TIME_FORMAT.format(r.recordCreationTime) : "",
-                            r.dataRetrievalTime != null ? ISO_DATE_TIME_FORMAT.format(r.dataRetrievalTime) : "",
-                            r.online,
-                            r.server != null ? r.server : "",
-                            r.playerCount
-                    );
+        for (ActivityRecord r : records) {
+            truncateToSeconds(r);
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long version;
+        // Server checks finish concurrently, appends to the segments and indexes have to happen one at a time
+        synchronized (activityWriteLock) {
+            version = writeActivityRecordsLocked(records);
+        }
+        sample.stop(meterRegistry.timer("storage.activity.write"));
+        meterRegistry.counter("storage.activity.rows.written").increment(records.size());
+        if (version >= 0) {
+            fireActivityRecordsWritten(version, records);
+        }
+    }
+
+    /**
+     * @return the data version including the records, {@code -1} if they could not be written
+     */
+    private long writeActivityRecordsLocked(List<ActivityRecord> records) {
+        // Load the stores before appending to the segments, otherwise the new records would be loaded twice
+        ActivitySeriesStore store = activityMemoryStoreEnabled ? getActivityStore() : null;
+        Map<ActivityRollupStore.Resolution, ActivityRollupStore> rollups = getActivityRollupStores();
+        ActivityStatistics statistics = getActivityStatistics();
+        if (!appendToActivitySegments(getActivitySegments(), records, statistics)) {
+            return -1;
+        }
+        if (store != null) {
+            store.appendAll(records);
+        }
+        for (ActivityRecord r : records) {
+            long creationTime = r.recordCreationTime != null ? r.recordCreationTime.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+            for (ActivityRollupStore rollup : rollups.values()) {
+                rollup.add(r.server, creationTime, r.online, r.playerCount);
+            }
+        }
+        sealActivityRollups(rollups.values());
+        for (ActivityRecord r : records) {
+            if (r.server != null) {
+                latestActivityRecords.merge(r.server, r, DataStorageService::newerActivityRecord);
+            }
+        }
+        return dataChanged();
+    }
+
+    /**
+     * @param statistics updated with the appended records, may be null while the statistics are not loaded yet
+     */
+    private boolean appendToActivitySegments(ActivitySegments segments, List<ActivityRecord> records, ActivityStatistics statistics) {
+        Map<ActivitySegments.Segment, List<ActivityRecord>> bySegment = new LinkedHashMap<>();
+        for (ActivityRecord r : records) {
+            LocalDateTime time = r.recordCreationTime != null ? r.recordCreationTime : LocalDateTime.now();
+            bySegment.computeIfAbsent(segments.segmentFor(time), s -> new ArrayList<>()).add(r);
+        }
+
+        boolean ok = true;
+        for (var entry : bySegment.entrySet()) {
+            Path path = entry.getKey().path();
+            ensureParentDirExists(path);
+
+            try {
+                long bytes;
+                if (segments.getFormat() == ActivitySegments.Format.BINARY) {
+                    ByteBuffer data = BinaryActivityRecordFile.encode(entry.getValue(), getServerDictionary()::idOf);
+                    bytes = data.remaining();
+                    activitySegmentAppender.append(path, data);
+                } else {
+                    bytes = appendToCsvSegment(path, entry.getValue());
                 }
+                meterRegistry.counter("storage.activity.bytes.written").increment(bytes);
+            } catch (IOException e) {
+                Log.error("Failed to write activity records to " + path, e);
+                ok = false;
+                continue;
+            }
+
+            if (statistics != null) {
+                updateActivityStatistics(statistics, path, entry.getValue());
+            }
+        }
+        return ok;
+    }
+
+    private static void updateActivityStatistics(ActivityStatistics statistics, Path segment, List<ActivityRecord> records) {
+        for (ActivityRecord r : records) {
+            statistics.add(segment, r);
+        }
+        try {
+            if (statistics.setSize(segment, Files.size(segment))) {
+                // Persist new segments right away, so only the latest segment has to be read again after a crash
+                saveActivityStatistics(statistics);
             }
         } catch (IOException e) {
-            Log.error("Failed to write activity records", e);
+            Log.error("Failed to read the size of " + segment, e);
+        }
+    }
+
+    /**
+     * Appends the records to a CSV segment and registers the byte offset of each line in the segment's time index.
+     *
+     * @return number of bytes appended
+     */
+    private long appendToCsvSegment(Path path, List<ActivityRecord> records) throws IOException {
+        long offset = activitySegmentAppender.size(path);
+
+        StringBuilder content = new StringBuilder();
+        CSVPrinter printer = new CSVPrinter(content, csvFormatActivity(offset > 0));
+        offset += content.toString().getBytes(StandardCharsets.UTF_8).length;
+        long[] lineOffsets = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            int lineStart = content.length();
+            printActivityRecord(printer, records.get(i));
+            lineOffsets[i] = offset;
+            offset += content.substring(lineStart).getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer data = StandardCharsets.UTF_8.encode(CharBuffer.wrap(content));
+        long bytes = data.remaining();
+        activitySegmentAppender.append(path, data);
+
+        ActivityTimeIndex index = getActivityTimeIndex(path);
+        if (index == null) return bytes;
+        for (int i = 0; i < records.size(); i++) {
+            ActivityRecord r = records.get(i);
+            if (r.recordCreationTime != null) {
+                index.recordAppend(lineOffsets[i], r.recordCreationTime.toEpochSecond(ZoneOffset.UTC));
+            }
         }
+        index.flush();
+        return bytes;
+    }
+
+    private ActivityTimeIndex getActivityTimeIndex(Path segment) {
+        try {
+            return activityTimeIndexes.computeIfAbsent(segment, p -> {
+                try {
+                    return ActivityTimeIndex.loadOrRebuild(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            Log.error("Failed to load time index of activity segment " + segment, e);
+            return null;
+        }
+    }
+
+    private static void truncateToSeconds(ActivityRecord r) {
+        if (r.recordCreationTime != null) r.recordCreationTime = r.recordCreationTime.truncatedTo(ChronoUnit.SECONDS);
+        if (r.dataRetrievalTime != null) r.dataRetrievalTime = r.dataRetrievalTime.truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    private static void printActivityRecord(CSVPrinter printer, ActivityRecord r) throws IOException {
+        printer.printRecord(
+                r.recordCreationTime != null ? ISO_DATE_TIME_FORMAT.format(r.recordCreationTime) : "",
+                r.dataRetrievalTime != null ? ISO_DATE_TIME_FORMAT.format(r.dataRetrievalTime) : "",
+                r.online,
+                r.server != null ? r.server : "",
+                r.playerCount
+        );
+    }
+
+    /**
+     * Writes the activity records matching the filter as CSV, in the same format the CSV segments use.
+     */
+    public void exportActivityRecordsCsv(ActivityRecordFilter filter, Writer writer) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        CSVPrinter printer = new CSVPrinter(writer, csvFormatActivity(false));
+        IOException[] failure = {null};
+        activitySegmentReplaceLock.readLock().lock();
+        try {
+            readActivityRecordSegments(filter, ar -> {
+                if (failure[0] != null) return;
+                try {
+                    printActivityRecord(printer, ar);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+        } finally {
+            activitySegmentReplaceLock.readLock().unlock();
+        }
+        if (failure[0] != null) throw failure[0];
+        printer.flush();
+        sample.stop(activityReadTimer("export", "segments"));
     }
 
     public ActivityRecord getLastActivityRecord(String server) {
         if (server == null) return null;
+        return getLastActivityRecords(Set.of(server)).get(server);
+    }
 
-        Path path = Paths.get(activityRecordsFilePath);
-        if (!Files.exists(path)) return null;
+    /**
+     * Returns the latest activity record of each of the given servers. Servers without records are not contained.
+     * The records are served from a cache that is kept up to date by {@link #writeActivityRecords(List)}.
+     */
+    public Map<String, ActivityRecord> getLastActivityRecords(Set<String> servers) {
+        Map<String, ActivityRecord> result = new HashMap<>();
+        if (servers == null || servers.isEmpty()) return result;
+        loadLatestActivityRecords();
+        for (String server : servers) {
+            ActivityRecord record = latestActivityRecords.get(server);
+            if (record != null) result.put(server, record);
+        }
+        return result;
+    }
 
-        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
-            long fileLength = file.length();
-            if (fileLength == 0) return null;
+    /**
+     * Returns the latest activity record of each of the given servers from the activity store.
+     * Without the in-memory store all servers are looked up in a single backward pass over the segments.
+     */
+    private Map<String, ActivityRecord> readLastActivityRecords(Set<String> servers) {
+        Map<String, ActivityRecord> result = new HashMap<>();
+        if (servers == null || servers.isEmpty()) return result;
 
-            StringBuilder lineBuilder = new StringBuilder();
-            long position = fileLength - 1;
+        Timer.Sample sample = Timer.start(meterRegistry);
+        if (activityMemoryStoreEnabled) {
+            ActivitySeriesStore store = getActivityStore();
+            for (String server : servers) {
+                ActivityRecord record = store.getLast(server);
+                if (record != null) result.put(server, record);
+            }
+            countActivityRowsRead("memory", result.size(), 0);
+            sample.stop(activityReadTimer("last-records", "memory"));
+            return result;
+        }
 
-            // Read file backwards line by line
-            while (position >= 0) {
-                file.seek(position);
-                char ch = (char) file.readByte();
+        ActivitySegments segments = getActivitySegments();
+        activitySegmentReplaceLock.readLock().lock();
+        try {
+            List<ActivitySegments.Segment> segmentList = segments.list().reversed();
+            if (segments.getFormat() == ActivitySegments.Format.BINARY) {
+                Map<Integer, String> remaining = new HashMap<>();
+                for (String server : servers) {
+                    int id = getServerDictionary().lookup(server);
+                    if (id >= 0) remaining.put(id, server);
+                }
+                long[] rows = {0};
+                for (ActivitySegments.Segment segment : segmentList) {
+                    if (remaining.isEmpty()) break;
+                    BinaryActivityRecordFile.scanReverse(segment.path(), readableSize(segment.path()), (id, rct, drt, onl, plc) -> {
+                        rows[0]++;
+                        String server = remaining.remove(id);
+                        if (server != null) {
+                            result.put(server, BinaryActivityRecordFile.toActivityRecord(server, rct, drt, onl, plc));
+                        }
+                        return !remaining.isEmpty();
+                    });
+                }
+                countActivityRowsRead("binary", rows[0], rows[0] * BinaryActivityRecordFile.RECORD_SIZE);
+                sample.stop(activityReadTimer("last-records", "segments"));
+                return result;
+            }
 
-                if (ch == '\n' || ch == '\r') {
-                    if (!lineBuilder.isEmpty()) {
-                        String line = lineBuilder.reverse().toString();
-                        ActivityRecord record = parseActivityRecordLine(line, server);
-                        if (record != null) {
-                            return record;
+            Set<String> remaining = new HashSet<>(servers);
+            ActivityCsvParser parser = new ActivityCsvParser(getServerDictionary());
+            boolean[] valid = {false};
+            ReverseLineReader.LineVisitor parseLine = (buffer, offset, end) -> valid[0] = parser.parseLine(buffer, offset, end);
+            for (ActivitySegments.Segment segment : segmentList) {
+                if (remaining.isEmpty()) break;
+                try (ReverseLineReader reader = new ReverseLineReader(segment.path(),
+                        ReverseLineReader.DEFAULT_BLOCK_SIZE, readableSize(segment.path()))) {
+                    long rows = 0;
+                    while (!remaining.isEmpty() && reader.readLine(parseLine)) {
+                        rows++;
+                        if (valid[0] && remaining.remove(parser.server())) {
+                            result.put(parser.server(), parser.toActivityRecord());
                         }
-                        lineBuilder.setLength(0);
                     }
-                } else {
-                    lineBuilder.append(ch);
+                    countActivityRowsRead("csv", rows, reader.getBytesRead());
                 }
-                position--;
             }
+        } catch (IOException e) {
+            Log.error("Failed to read last activity records for servers: " + servers, e);
+        } finally {
+            activitySegmentReplaceLock.readLock().unlock();
+        }
+        sample.stop(activityReadTimer("last-records", "segments"));
+        return result;
+    }
+
+    public record ActivityRecordFilter(LocalDateTime from, LocalDateTime to, String server) {}
+
+    public List<ActivityRecord> getActivityRecords(ActivityRecordFilter filter) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        if (activityMemoryStoreEnabled) {
+            List<ActivityRecord> result = filter == null
+                    ? getActivityStore().query(null, null, null)
+                    : getActivityStore().query(filter.from(), filter.to(), filter.server());
+            countActivityRowsRead("memory", result.size(), 0);
+            sample.stop(activityReadTimer("records", "memory"));
+            return result;
+        }
+
+        List<ActivityRecord> result;
+        activitySegmentReplaceLock.readLock().lock();
+        try {
+            if (getActivitySegments().getFormat() == ActivitySegments.Format.CSV) {
+                result = readCsvActivityRecordsSorted(filter);
+            } else {
+                result = new ArrayList<>();
+                readActivityRecordSegments(filter, result::add);
+                result.sort(ParallelSegmentScan.BY_CREATION_TIME);
+            }
+        } finally {
+            activitySegmentReplaceLock.readLock().unlock();
+        }
+        sample.stop(activityReadTimer("records", "segments"));
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface ActivityRecordVisitor {
+        /**
+         * Called before the first record of a server is visited.
+         *
+         * @param count number of records of the server that match the filter
+         * @param first creation time of the server's first matching record
+         * @param last  creation time of the server's last matching record
+         */
+        default void beginServer(String server, long count, LocalDateTime first, LocalDateTime last) throws IOException {}
+
+        /**
+         * @return {@code false} to skip the remaining records of the current server
+         */
+        boolean visit(ActivityRecord record) throws IOException;
 
-            // Handle the first line (no newline at the beginning)
-            if (!lineBuilder.isEmpty()) {
-                String line = lineBuilder.reverse().toString();
-                ActivityRecord record = parseActivityRecordLine(line, server);
-                if (record != null) {
-                    return record;
+        /**
+         * Called after the last record of a server was visited or skipped.
+         */
+        default void endServer(String server) throws IOException {}
+    }
+
+    /**
+     * Visits the records matching the filter grouped by server, ordered by server name and creation time.
+     * Servers without matching records are left out. The records are visited as they are read without collecting
+     * them first: from the in-memory store if enabled, otherwise with one pass over the segments that counts the
+     * records of each server and one more pass per server.
+     */
+    public void forEachActivityRecordByServer(ActivityRecordFilter filter, ActivityRecordVisitor visitor) throws IOException {
+        LocalDateTime from = filter != null ? filter.from() : null;
+        LocalDateTime to = filter != null ? filter.to() : null;
+        String server = filter != null ? filter.server() : null;
+        try {
+            if (activityMemoryStoreEnabled) {
+                Timer.Sample sample = Timer.start(meterRegistry);
+                ActivitySeriesStore store = getActivityStore();
+                Set<String> servers = server != null ? Set.of(server) : store.getServers();
+                long rows = 0;
+                for (String srv : servers) {
+                    ActivitySeriesStore.Range range = store.range(from, to, srv);
+                    if (range.count() == 0) continue;
+                    rows += range.count();
+                    visitor.beginServer(srv, range.count(), range.first(), range.last());
+                    // Bound by the last counted record, so records appended meanwhile do not exceed the announced count
+                    store.forEach(from, range.last(), srv, ar -> visitUnchecked(visitor, ar));
+                    visitor.endServer(srv);
                 }
+                countActivityRowsRead("memory", rows, 0);
+                sample.stop(activityReadTimer("by-server", "memory"));
+                return;
             }
 
-        } catch (IOException e) {
-            Log.error("Failed to read last activity record for server: " + server, e);
+            activitySegmentReplaceLock.readLock().lock();
+            try {
+                forEachSegmentRecordByServer(filter, visitor);
+            } finally {
+                activitySegmentReplaceLock.readLock().unlock();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        return null;
+    private static final class ServerSpan {
+        long count = 0;
+        LocalDateTime first = null;
+        LocalDateTime last = null;
     }
 
-    private ActivityRecord parseActivityRecordLine(String line, String targetServer) {
-        if (line == null || line.trim().isEmpty()) return null;
+    /**
+     * Streams the records of each server from the segments, which hold the records of a server in creation time order
+     * as they were written. Only the count and time span of each server are kept in memory.
+     */
+    private void forEachSegmentRecordByServer(ActivityRecordFilter filter, ActivityRecordVisitor visitor) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Map<String, ServerSpan> spans = new TreeMap<>();
+        readActivityRecordSegments(filter, ar -> {
+            ServerSpan span = spans.computeIfAbsent(ar.server, k -> new ServerSpan());
+            span.count++;
+            if (ar.recordCreationTime != null) {
+                if (span.first == null || ar.recordCreationTime.isBefore(span.first)) span.first = ar.recordCreationTime;
+                if (span.last == null || ar.recordCreationTime.isAfter(span.last)) span.last = ar.recordCreationTime;
+            }
+        });
+        for (Map.Entry<String, ServerSpan> entry : spans.entrySet()) {
+            String srv = entry.getKey();
+            ServerSpan span = entry.getValue();
+            visitor.beginServer(srv, span.count, span.first, span.last);
+            // Bound by the counted records, so records appended meanwhile do not exceed the announced count
+            ActivityRecordFilter serverFilter = span.first != null
+                    ? new ActivityRecordFilter(span.first, span.last, srv)
+                    : new ActivityRecordFilter(filter != null ? filter.from() : null, filter != null ? filter.to() : null, srv);
+            boolean[] skipping = {false};
+            readActivityRecordSegments(serverFilter, ar -> {
+                if (!skipping[0]) skipping[0] = !visitUnchecked(visitor, ar);
+            });
+            visitor.endServer(srv);
+        }
+        sample.stop(activityReadTimer("by-server", "segments"));
+    }
 
-        if (line.startsWith("recordCreationTime")) return null;
+    private static boolean visitUnchecked(ActivityRecordVisitor visitor, ActivityRecord ar) {
+        try {
+            return visitor.visit(ar);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
+    /**
+     * Reads the records matching the filter from the segments overlapping its time range, oldest segment first.
+     */
+    private void readActivityRecordSegments(ActivityRecordFilter filter, Consumer<ActivityRecord> consumer) {
+        if (getActivitySegments().getFormat() == ActivitySegments.Format.BINARY) {
+            ServerDictionary dictionary = getServerDictionary();
+            String server = filter != null ? filter.server() : null;
+            scanBinaryActivityRecordSegments(filter, (id, rct, drt, onl, plc) -> consumer.accept(
+                    BinaryActivityRecordFile.toActivityRecord(server != null ? server : dictionary.nameOf(id), rct, drt, onl, plc)));
+            return;
+        }
         try {
-            String[] parts = line.split(String.valueOf(SEPARATOR));
-            if (parts.length != 5) return null;
+            readCsvChunks(activityCsvChunks(filter), filter, consumer);
+        } catch (IOException e) {
+            Log.error("Failed to read activity record segments", e);
+        }
+    }
 
-            String srv = parts[3]; // server is at index 3
+    /**
+     * Reads the CSV records matching the filter sorted by creation time. Every chunk is sorted on its own while
+     * the others are still being read, then the chunks are merged.
+     */
+    private List<ActivityRecord> readCsvActivityRecordsSorted(ActivityRecordFilter filter) {
+        try {
+            List<List<ActivityRecord>> chunks = ParallelSegmentScan.readAll(getActivityScanPool(), activityCsvChunks(filter), chunk -> {
+                List<ActivityRecord> records = readCsvChunk(chunk, filter);
+                records.sort(ParallelSegmentScan.BY_CREATION_TIME);
+                return records;
+            });
+            return ParallelSegmentScan.mergeByCreationTime(chunks);
+        } catch (IOException e) {
+            Log.error("Failed to read activity record segments", e);
+            return new ArrayList<>();
+        }
+    }
 
-            if (targetServer != null && !Objects.equals(srv, targetServer)) {
-                return null;
+    /**
+     * Splits the parts of the CSV segments overlapping the filter's time range into line-aligned chunks, oldest first.
+     */
+    private List<ParallelSegmentScan.Chunk> activityCsvChunks(ActivityRecordFilter filter) throws IOException {
+        LocalDateTime from = filter != null ? filter.from() : null;
+        LocalDateTime to = filter != null ? filter.to() : null;
+        List<ActivitySegments.Segment> segments = getActivitySegments().overlapping(from, to);
+        long[] sizes = readableSizes(segments);
+        List<ParallelSegmentScan.Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            ActivitySegments.Segment segment = segments.get(i);
+            ActivityTimeIndex index = (from != null || to != null) ? getActivityTimeIndex(segment.path()) : null;
+            long start = 0;
+            long end = -1;
+            if (index != null) {
+                // Only read the part of the segment that can contain records within the time range
+                start = from != null ? index.startOffset(from.toEpochSecond(ZoneOffset.UTC)) : 0;
+                end = to != null ? index.endOffset(to.toEpochSecond(ZoneOffset.UTC)) : -1;
             }
+            chunks.addAll(splitCsvSegment(segment.path(), start, end, sizes[i]));
+        }
+        return chunks;
+    }
 
-            return buildActivityRecord(parts[0], parts[1], parts[2], srv, parts[4]);
-        } catch (Exception e) {
-            Log.debug("Failed to parse activity record line: " + line, e);
-            return null;
+    /**
+     * Splits the byte range {@code [start, end)} of a CSV segment into line-aligned chunks, {@code end = -1} meaning
+     * the end of the file. Never goes past {@code readable}, the end of the last completely written record.
+     */
+    private List<ParallelSegmentScan.Chunk> splitCsvSegment(Path path, long start, long end, long readable) throws IOException {
+        return ParallelSegmentScan.split(path, start, end >= 0 ? Math.min(end, readable) : readable, activityScanChunkSize);
+    }
+
+    /**
+     * Reads the chunks on the scan pool and hands the records matching the filter to the consumer in file order.
+     */
+    private void readCsvChunks(List<ParallelSegmentScan.Chunk> chunks, ActivityRecordFilter filter, Consumer<ActivityRecord> consumer) throws IOException {
+        if (chunks.isEmpty()) return;
+        ForkJoinPool pool = getActivityScanPool();
+        // A few chunks ahead keep all threads busy while the consumer catches up, without holding the whole file
+        ParallelSegmentScan.forEachOrdered(pool, chunks, 2 * pool.getParallelism(),
+                chunk -> readCsvChunk(chunk, filter), records -> records.forEach(consumer));
+    }
+
+    private List<ActivityRecord> readCsvChunk(ParallelSegmentScan.Chunk chunk, ActivityRecordFilter filter) throws IOException {
+        List<ActivityRecord> records = new ArrayList<>();
+        readCsvSegmentRange(chunk.path(), chunk.start(), chunk.end(), filter, records::add);
+        return records;
+    }
+
+    private ForkJoinPool getActivityScanPool() {
+        ForkJoinPool pool = activityScanPool;
+        if (pool != null) return pool;
+        synchronized (activityScanPoolLock) {
+            if (activityScanPool == null) {
+                int parallelism = activityScanParallelism > 0 ? activityScanParallelism : Runtime.getRuntime().availableProcessors();
+                activityScanPool = new ForkJoinPool(parallelism);
+            }
+            return activityScanPool;
         }
     }
 
-    public record ActivityRecordFilter(LocalDateTime from, LocalDateTime to, String server) {}
+    /**
+     * Visits the rows matching the filter in the binary segments overlapping its time range without materializing records.
+     */
+    private void scanBinaryActivityRecordSegments(ActivityRecordFilter filter, BinaryActivityRecordFile.RowVisitor visitor) {
+        LocalDateTime from = filter != null ? filter.from() : null;
+        LocalDateTime to = filter != null ? filter.to() : null;
+        int serverId = -1;
+        if (filter != null && filter.server() != null) {
+            serverId = getServerDictionary().lookup(filter.server());
+            if (serverId < 0) return;
+        }
+        long fromSec = from != null ? from.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+        long toSec = to != null ? to.toEpochSecond(ZoneOffset.UTC) : Long.MAX_VALUE;
+        try {
+            List<ActivitySegments.Segment> segments = getActivitySegments().overlapping(from, to);
+            long[] sizes = readableSizes(segments);
+            for (int i = 0; i < segments.size(); i++) {
+                long rows = BinaryActivityRecordFile.scan(segments.get(i).path(), sizes[i], serverId, fromSec, toSec, visitor);
+                countActivityRowsRead("binary", rows, rows * BinaryActivityRecordFile.RECORD_SIZE);
+            }
+        } catch (IOException e) {
+            Log.error("Failed to read binary activity record segments", e);
+        }
+    }
 
-    public List<ActivityRecord> getActivityRecords(ActivityRecordFilter filter) {
-        boolean hasFilterServer = filter != null && filter.server() != null;
-        boolean hasFilterFrom = filter != null && filter.from() != null;
-        boolean hasFilterTo = filter != null && filter.to() != null;
-
-        List<ActivityRecord> result = new ArrayList<>();
-        Path path = Paths.get(activityRecordsFilePath);
-        if (!Files.exists(path)) return result;
-        CSVFormat format = csvFormatActivity(true);
-        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
-             CSVParser parser = CSVParser.parse(reader, format)) {
-            for (CSVRecord rec : parser) {
-                String srv = rec.get("server");
-
-                if (hasFilterServer && !Objects.equals(srv, filter.server())) {
-                    continue;
+    /**
+     * Reads the records matching the filter within the byte range {@code [start, end)} of a CSV segment,
+     * {@code end = -1} meaning the end of the file. Rows are filtered before they are turned into records.
+     * Never reads past the last completely written record.
+     *
+     * @param filter may be null to read all records
+     */
+    private void readCsvSegmentRange(Path path, long start, long end, ActivityRecordFilter filter, Consumer<ActivityRecord> consumer) throws IOException {
+        long readable = readableSize(path);
+        end = end >= 0 ? Math.min(end, readable) : readable;
+        if (end <= start) return;
+        byte[] server = filter != null && filter.server() != null ? filter.server().getBytes(StandardCharsets.UTF_8) : null;
+        LocalDateTime from = filter != null ? filter.from() : null;
+        LocalDateTime to = filter != null ? filter.to() : null;
+        long[] rows = {0};
+        try (InputStream in = ActivityTimeIndex.openRange(path, start, end)) {
+            new ActivityCsvParser(getServerDictionary()).parse(in, row -> {
+                rows[0]++;
+                if ((server == null || row.serverEquals(server)) && row.createdWithin(from, to)) {
+                    consumer.accept(row.toActivityRecord());
                 }
+            });
+        }
+        countActivityRowsRead("csv", rows[0], end - start);
+    }
 
-                ActivityRecord ar = buildActivityRecord(
-                        rec.get("recordCreationTime"),
-                        rec.get("dataRetrievalTime"),
-                        rec.get("online"),
-                        srv,
-                        rec.get("playerCount")
-                );
+    private Timer activityReadTimer(String operation, String source) {
+        return meterRegistry.timer("storage.activity.read", "operation", operation, "source", source);
+    }
 
-                if (hasFilterFrom && ar.recordCreationTime != null && ar.recordCreationTime.isBefore(filter.from())) {
-                    continue;
-                }
-                if (hasFilterTo && ar.recordCreationTime != null && ar.recordCreationTime.isAfter(filter.to())) {
-                    continue;
-                }
+    /**
+     * Counts rows and bytes read from the activity records, by where they were read from: memory, csv or binary.
+     */
+    private void countActivityRowsRead(String source, long rows, long bytes) {
+        meterRegistry.counter("storage.activity.rows.scanned", "source", source).increment(rows);
+        if (bytes > 0) {
+            meterRegistry.counter("storage.activity.bytes.read", "source", source).increment(bytes);
+        }
+    }
+
+    /**
+     * Bytes of the segment that can be read without running into a record that is being appended.
+     */
+    private long readableSize(Path segment) {
+        return activitySegmentAppender.readableSize(segment);
+    }
 
-                result.add(ar);
+    /**
+     * Readable sizes of segments that are read together, ordered oldest first. The sizes are taken from the newest
+     * segment to the oldest: a server's records are appended in time order, so its records read from a newer segment
+     * come with all of its older ones, even if the segments are appended to while they are read.
+     */
+    private long[] readableSizes(List<ActivitySegments.Segment> segments) {
+        long[] sizes = new long[segments.size()];
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            sizes[i] = readableSize(segments.get(i).path());
+        }
+        return sizes;
+    }
+
+    private boolean readActivitySegmentFile(ActivitySegments segments, Path path, Consumer<ActivityRecord> consumer) {
+        if (segments.getFormat() == ActivitySegments.Format.CSV) {
+            if (!Files.exists(path)) return true;
+            try {
+                readCsvChunks(splitCsvSegment(path, 0, -1, readableSize(path)), null, consumer);
+                return true;
+            } catch (IOException e) {
+                Log.error("Failed to read activity records from " + path, e);
+                return false;
             }
+        }
+        ServerDictionary dictionary = getServerDictionary();
+        try {
+            long rows = BinaryActivityRecordFile.scan(path, readableSize(path), -1, Long.MIN_VALUE, Long.MAX_VALUE, (id, rct, drt, onl, plc) ->
+                    consumer.accept(BinaryActivityRecordFile.toActivityRecord(dictionary.nameOf(id), rct, drt, onl, plc)));
+            countActivityRowsRead("binary", rows, rows * BinaryActivityRecordFile.RECORD_SIZE);
+            return true;
         } catch (IOException e) {
-            Log.error("Failed to read activity records", e);
+            Log.error("Failed to read activity records from " + path, e);
+            return false;
+        }
+    }
+
+    private boolean readActivityRecordsFile(Path path, Consumer<ActivityRecord> consumer) {
+        if (!Files.exists(path)) return true;
+        try (InputStream in = Files.newInputStream(path)) {
+            new ActivityCsvParser(getServerDictionary()).parse(in, row -> consumer.accept(row.toActivityRecord()));
+            return true;
+        } catch (IOException e) {
+            Log.error("Failed to read activity records from " + path, e);
+            return false;
         }
-        result.sort(Comparator.comparing(ar -> ar.recordCreationTime));
-        return result;
     }
 
     // ---------------------
     // Servers
     // ---------------------
 
-    public synchronized Set<ServerRecord> getServers() {
-        Path path = Paths.get(serversFilePath);
-        long mtime = -1;
-        if (Files.exists(path)) {
-            try { mtime = Files.getLastModifiedTime(path).toMillis(); } catch (IOException ignored) {}
-        }
-        if (serversCache != null && mtime == serversCacheMtime) {
-            return serversCache;
-        }
-        Set<ServerRecord> set = new HashSet<>();
-        if (!Files.exists(path)) {
-            serversCache = set;
-            serversCacheMtime = mtime;
-            return set;
-        }
-        CSVFormat format = csvFormatServers(true);
-        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
-             CSVParser parser = CSVParser.parse(reader, format)) {
-            for (CSVRecord rec : parser) {
-                ServerRecord sr = new ServerRecord();
-                sr.server = rec.get("server");
-                String lft = rec.get("lastFetchTime");
-                sr.lastFetchTime = (lft == null || lft.isEmpty()) ? LocalDateTime.MIN : LocalDateTime.parse(lft, ISO_DATE_TIME_FORMAT);
-                set.add(sr);
-            }
-        } catch (IOException e) {
-            Log.error("Failed to read servers", e);
-        }
-        serversCache = set;
-        serversCacheMtime = mtime;
-        return set;
-    }
-
-    public synchronized void addServer(String server) {
-        ServerRecord record = new ServerRecord();
-        record.server = server;
-        record.lastFetchTime = LocalDateTime.MIN;
-        writeServerRecord(record);
-    }
-
-    private void writeServers(Set<ServerRecord> all) {
-        Path path = Paths.get(serversFilePath);
-        ensureParentDirExists(path);
-        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            CSVFormat format = csvFormatServers(false);
-            try (CSVPrinter printer = new CSVPrinter(writer, format)) {
-                for (ServerRecord sr : all) {
-                    printer.printRecord(
-                            sr.server != null ? sr.server : "",
-                            sr.lastFetchTime != null ? ISO_DATE_TIME_FORMAT.format(sr.lastFetchTime) : ""
-                    );
+    /**
+     * Returns the server registry, loading it from the servers file and its journal on first access.
+     */
+    private ServerRegistry getServerRegistry() {
+        ServerRegistry registry = serverRegistry;
+        if (registry != null) return registry;
+        synchronized (serverRegistryLock) {
+            if (serverRegistry == null) {
+                Path path = Paths.get(serversFilePath);
+                try {
+                    ServerRegistry loaded = ServerRegistry.load(path);
+                    // Servers tracked before ids were assigned on adding
+                    ServerDictionary dictionary = getServerDictionary();
+                    for (ServerRecord sr : loaded.getServers()) {
+                        dictionary.idOf(sr.server);
+                    }
+                    serverRegistry = loaded;
+                } catch (IOException | RuntimeException e) {
+                    throw new IllegalStateException("Failed to load servers from " + path, e);
                 }
             }
-            try { serversCacheMtime = Files.getLastModifiedTime(path).toMillis(); } catch (IOException ignored) {}
-            serversCache = all;
-        } catch (IOException e) {
-            Log.error("Failed to write servers", e);
+            return serverRegistry;
         }
     }
 
-    public synchronized void writeServerRecord(ServerRecord record) {
-        Set<ServerRecord> all = new HashSet<>(getServers());
-        all.removeIf(sr -> Objects.equals(sr.server, record.server));
-        all.add(record);
-        writeServers(all);
+    /**
+     * Returns the dictionary of server ids, loading it on first access. It is shared by the in-memory store,
+     * the CSV parsers and the binary segments, and lives with the segments as the binary ones refer to its ids.
+     */
+    private ServerDictionary getServerDictionary() {
+        ServerDictionary dictionary = serverDictionary;
+        if (dictionary != null) return dictionary;
+        synchronized (serverRegistryLock) {
+            if (serverDictionary == null) {
+                Path path = activityRecordsDirectory().resolve(activityRecordsBaseName() + "-server-ids.csv");
+                try {
+                    serverDictionary = ServerDictionary.load(path);
+                } catch (IOException | RuntimeException e) {
+                    throw new IllegalStateException("Failed to load server ids from " + path, e);
+                }
+            }
+            return serverDictionary;
+        }
     }
 
-    public synchronized boolean deleteServer(String server) {
-        if (server == null) return false;
-        Set<ServerRecord> all = new HashSet<>(getServers());
-        boolean removed = all.removeIf(sr -> Objects.equals(sr.server, server));
-        if (!removed) return false;
-        writeServers(all);
-        return true;
+    public Set<ServerRecord> getServers() {
+        return getServerRegistry().getServers();
     }
 
-    // ---------------------
-    // Helpers (parsing, CSV, IO)
-    // ---------------------
+    /**
+     * @throws IllegalArgumentException if the name cannot be tracked, see {@link ServerRegistry#isValidName(String)}
+     */
+    public void addServer(String server) {
+        if (!ServerRegistry.isValidName(server)) {
+            throw new IllegalArgumentException("Invalid server name: " + server);
+        }
+        ServerRegistry registry = getServerRegistry();
+        if (registry.contains(server)) return;
+        try {
+            registry.put(server, LocalDateTime.MIN);
+        } catch (IOException e) {
+            Log.error("Failed to write servers", e);
+            return;
+        }
+        fireServerChanged(dataChanged(), ServerChange.ADDED, server, null);
+        try {
+            getServerDictionary().idOf(server);
+        } catch (IllegalStateException e) {
+            // Assigned again with the first record of the server
+            Log.error("Failed to assign server id", e);
+        }
 
-    private static boolean parseBoolean(String value) {
-        if (value == null) return false;
-        return "1".equals(value) || Boolean.parseBoolean(value);
+        // The server may have been tracked before, so pick up its history
+        if (latestActivityRecordsLoaded && !latestActivityRecords.containsKey(server)) {
+            readLastActivityRecords(Set.of(server)).forEach((srv, rec) ->
+                    latestActivityRecords.merge(srv, rec, DataStorageService::newerActivityRecord));
+        }
     }
 
-    private static LocalDateTime parseLocalDateTime(String value) {
-        if (value == null || value.isEmpty()) return null;
-        return LocalDateTime.parse(value, ISO_DATE_TIME_FORMAT);
+    /**
+     * Records that the server is being fetched at the given time.
+     *
+     * @return {@code false} if the server is not tracked (anymore)
+     */
+    public boolean markServerFetched(String server, LocalDateTime fetchTime) {
+        try {
+            boolean updated = getServerRegistry().updateLastFetchTime(server, fetchTime);
+            if (updated) {
+                fireServerChanged(dataChanged(), ServerChange.FETCHED, server, fetchTime);
+            }
+            return updated;
+        } catch (IOException e) {
+            Log.error("Failed to write servers", e);
+            // Still check the server, the fetch time is only lost if the application stops before the next write
+            return getServerRegistry().contains(server);
+        }
     }
 
-    private static int parseIntSafe(String value) {
-        if (value == null || value.isEmpty()) return 0;
+    public boolean deleteServer(String server) {
+        if (server == null) return false;
+        boolean removed;
         try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            return 0;
+            removed = getServerRegistry().remove(server);
+        } catch (IOException e) {
+            Log.error("Failed to write servers", e);
+            return false;
         }
+        if (removed) {
+            latestActivityRecords.remove(server);
+            fireServerChanged(dataChanged(), ServerChange.REMOVED, server, null);
+        }
+        return removed;
     }
 
-    private static CSVFormat csvFormatActivity(boolean skipHeader) {
-        return CSVFormat.DEFAULT.builder()
-                .setHeader("recordCreationTime", "dataRetrievalTime", "online", "server", "playerCount")
-                .setSkipHeaderRecord(skipHeader)
-                .setDelimiter(SEPARATOR)
-                .get();
+    private void closeServerRegistry() {
+        ServerRegistry registry = serverRegistry;
+        if (registry == null) return;
+        try {
+            registry.compact();
+            registry.close();
+        } catch (IOException e) {
+            Log.error("Failed to write servers", e);
+        }
     }
 
-    private static CSVFormat csvFormatServers(boolean skipHeader) {
+    // ---------------------
+    // Helpers (parsing, CSV, IO)
+    // ---------------------
+
+    private static CSVFormat csvFormatActivity(boolean skipHeader) {
         return CSVFormat.DEFAULT.builder()
-                .setHeader("server", "lastFetchTime")
+                .setHeader("recordCreationTime", "dataRetrievalTime", "online", "server", "playerCount")
                 .setSkipHeaderRecord(skipHeader)
                 .setDelimiter(SEPARATOR)
                 .get();
@@ -334,14 +1392,191 @@ public class DataStorageService {
         } catch (Exception ignored) {}
     }
 
-    private static ActivityRecord buildActivityRecord(String rct, String drt, String onl, String srv, String plc) {
-        ActivityRecord ar = new ActivityRecord();
-        ar.recordCreationTime = parseLocalDateTime(rct);
-        ar.dataRetrievalTime = parseLocalDateTime(drt);
-        ar.online = parseBoolean(onl);
-        ar.server = srv;
-        ar.playerCount = parseIntSafe(plc);
-        return ar;
+    // ---------------------
+    // Retention
+    // ---------------------
+
+    /**
+     * Outcome of a run of {@link #compactActivityRecords()}.
+     *
+     * @param cutoff         raw records created before this time were removed
+     * @param bytesReclaimed bytes freed in the segments and the backups of deleted segments
+     */
+    public record CompactionReport(LocalDateTime cutoff, LocalDateTime finishedAt, int segmentsDeleted, int segmentsRewritten,
+                                   long recordsRemoved, long bytesReclaimed, long durationMillis) {}
+
+    /**
+     * Report of the last compaction since the start, {@code null} if none ran yet.
+     */
+    public CompactionReport getLastCompactionReport() {
+        return lastCompactionReport;
+    }
+
+    /**
+     * Removes the raw activity records created more than {@code storage.activity.retention.days} days ago, whose
+     * hourly and daily rollups stay. Segments that end before the cutoff are deleted, the segment the cutoff falls into
+     * is rewritten to a temporary file that replaces it with an atomic move. Deleting and replacing wait for
+     * running reads, so readers see either the old or the new file, each with its own index and size. Besides sealing the rollups, only a rewrite of the segment that is currently appended to holds the write lock.
+     *
+     * @return {@code null} if retention is disabled or nothing could be compacted
+     */
+    public CompactionReport compactActivityRecords() {
+        if (activityRetentionDays <= 0) return null;
+        synchronized (activityCompactionLock) {
+            long start = System.currentTimeMillis();
+            ActivitySegments segments = getActivitySegments();
+            Map<ActivityRollupStore.Resolution, ActivityRollupStore> rollups = getActivityRollupStores();
+            // Records are added to the rollups under the write lock, a seal must not run concurrently with them
+            synchronized (activityWriteLock) {
+                sealActivityRollups(rollups.values());
+            }
+            // Whole days, so the daily rollups of the removed records are complete
+            LocalDateTime cutoff = LocalDate.now().minusDays(activityRetentionDays).atStartOfDay();
+            for (ActivityRollupStore store : rollups.values()) {
+                if (store.getSealedUntil() < cutoff.toEpochSecond(ZoneOffset.UTC)) {
+                    Log.errorf("Skipping compaction of activity records, the %s rollups are not persisted up to %s",
+                            store.getResolution(), cutoff);
+                    return null;
+                }
+            }
+
+            ActivityStatistics statistics = getActivityStatistics();
+            Path backupDir = activityBackupDirectory(segments);
+            int deleted = 0;
+            int rewritten = 0;
+            long removed = 0;
+            long reclaimed = 0;
+            try {
+                for (ActivitySegments.Segment segment : segments.list()) {
+                    if (!segment.start().isBefore(cutoff)) break;
+                    Path path = segment.path();
+                    if (!segment.end().isAfter(cutoff)) {
+                        long size = Files.size(path);
+                        removed += statistics.getCount(path);
+                        // Readers that listed the segment finish reading it first
+                        activitySegmentReplaceLock.writeLock().lock();
+                        try {
+                            Files.delete(path);
+                            activityTimeIndexes.remove(path);
+                            Files.deleteIfExists(ActivityTimeIndex.indexPathOf(path));
+                        } finally {
+                            activitySegmentReplaceLock.writeLock().unlock();
+                        }
+                        Path backup = backupDir.resolve(path.getFileName());
+                        if (Files.exists(backup)) {
+                            reclaimed += Files.size(backup);
+                            Files.delete(backup);
+                        }
+                        reclaimed += size;
+                        deleted++;
+                        continue;
+                    }
+                    long first = statistics.getFirstCreationTime(path);
+                    if (first != ActivitySeriesStore.NO_TIME && first >= cutoff.toEpochSecond(ZoneOffset.UTC)) {
+                        // Compacted up to the cutoff already
+                        continue;
+                    }
+                    long countBefore = statistics.getCount(path);
+                    if (segment.isSealed(LocalDateTime.now())) {
+                        reclaimed += rewriteActivitySegment(segments, path, cutoff, statistics);
+                    } else {
+                        // The appender must not write to the file that is replaced
+                        synchronized (activityWriteLock) {
+                            reclaimed += rewriteActivitySegment(segments, path, cutoff, statistics);
+                        }
+                    }
+                    removed += countBefore - statistics.getCount(path);
+                    rewritten++;
+                }
+                if (deleted > 0) {
+                    statistics.retainSegments(segments.list().stream().map(ActivitySegments.Segment::path).toList());
+                }
+            } catch (IOException e) {
+                Log.error("Failed to compact activity record segments", e);
+            }
+
+            ActivitySeriesStore store = activityStore;
+            if (store != null) {
+                store.removeBefore(cutoff);
+            }
+            saveActivityStatistics(statistics);
+            if (deleted > 0 || rewritten > 0) {
+                dataChanged();
+            }
+            meterRegistry.counter("storage.activity.retention.bytes.reclaimed").increment(reclaimed);
+            meterRegistry.counter("storage.activity.retention.rows.removed").increment(removed);
+
+            CompactionReport report = new CompactionReport(cutoff, LocalDateTime.now(), deleted, rewritten, removed, reclaimed,
+                    System.currentTimeMillis() - start);
+            lastCompactionReport = report;
+            Log.infof("Compacted activity records before %s in %d ms: %d segments deleted, %d rewritten, %d records removed, %d bytes reclaimed",
+                    cutoff, report.durationMillis(), deleted, rewritten, removed, reclaimed);
+            return report;
+        }
+    }
+
+    /**
+     * Replaces the segment with a copy without the records created before the cutoff and counts it again.
+     * The copy and its time index are built first, then the file, its index and its readable size are replaced
+     * together while no reader is reading segments.
+     *
+     * @return bytes reclaimed
+     */
+    private long rewriteActivitySegment(ActivitySegments segments, Path path, LocalDateTime cutoff, ActivityStatistics statistics) throws IOException {
+        long sizeBefore = Files.size(path);
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            ActivityTimeIndex index = null;
+            if (segments.getFormat() == ActivitySegments.Format.BINARY) {
+                BinaryActivityRecordFile.copyFrom(path, readableSize(path), cutoff.toEpochSecond(ZoneOffset.UTC), tmp);
+            } else {
+                writeCsvSegmentFrom(path, cutoff, tmp);
+                index = ActivityTimeIndex.build(tmp, path);
+            }
+            activitySegmentReplaceLock.writeLock().lock();
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                // The readable size published by the appender is that of the old, larger file
+                activitySegmentAppender.close();
+                if (index != null) {
+                    activityTimeIndexes.remove(path);
+                    // Written after the move, so it is not older than the segment
+                    index.save();
+                    activityTimeIndexes.put(path, index);
+                }
+            } finally {
+                activitySegmentReplaceLock.writeLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        statistics.resetSegment(path);
+        readActivitySegmentFile(segments, path, ar -> statistics.add(path, ar));
+        long sizeAfter = Files.size(path);
+        statistics.setSize(path, sizeAfter);
+        return sizeBefore - sizeAfter;
+    }
+
+    private void writeCsvSegmentFrom(Path source, LocalDateTime from, Path target) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(target.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            CSVPrinter printer = new CSVPrinter(writer, csvFormatActivity(false));
+            IOException[] failure = {null};
+            readCsvChunks(splitCsvSegment(source, 0, -1, readableSize(source)), new ActivityRecordFilter(from, null, null), ar -> {
+                if (failure[0] != null) return;
+                try {
+                    printActivityRecord(printer, ar);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            printer.flush();
+            writer.flush();
+            // On the device before it replaces the segment
+            out.getFD().sync();
+        }
     }
 
     // ---------------------
@@ -349,20 +1584,45 @@ public class DataStorageService {
     // ---------------------
 
     public void copyFilesToBakFiles() {
-        Path activitySrc = Paths.get(activityRecordsFilePath);
-        Path activityBak = Paths.get(activityRecordsFilePath + ".bak");
+        ActivitySegments segments = getActivitySegments();
+        Path activityBakDir = activityBackupDirectory(segments);
         try {
-            Files.copy(activitySrc, activityBak, StandardCopyOption.REPLACE_EXISTING);
+            Files.createDirectories(activityBakDir);
+            int copied = 0;
+            for (ActivitySegments.Segment segment : segments.list()) {
+                Path bak = activityBakDir.resolve(segment.path().getFileName());
+                if (isUnchangedCopy(segment.path(), bak)) continue;
+                Files.copy(segment.path(), bak, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                copied++;
+            }
+            Path dictionary = getServerDictionary().getPath();
+            if (Files.exists(dictionary) && !isUnchangedCopy(dictionary, activityBakDir.resolve(dictionary.getFileName()))) {
+                Files.copy(dictionary, activityBakDir.resolve(dictionary.getFileName()),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            Log.infof("Backed up %d changed activity segments", copied);
         } catch (IOException e) {
-            Log.error("Failed to copy activity-records.csv file", e);
+            Log.error("Failed to copy activity segment files", e);
         }
 
         Path serversSrc = Paths.get(serversFilePath);
         Path serversBak = Paths.get(serversFilePath + ".bak");
         try {
+            // Fold the journal into the servers file, so the copy is complete
+            getServerRegistry().compact();
             Files.copy(serversSrc, serversBak, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
             Log.error("Failed to copy servers.csv file", e);
         }
     }
+
+    private static Path activityBackupDirectory(ActivitySegments segments) {
+        return segments.getDirectory().resolveSibling(segments.getDirectory().getFileName() + ".bak");
+    }
+
+    private static boolean isUnchangedCopy(Path src, Path bak) throws IOException {
+        if (!Files.exists(bak)) return false;
+        return Files.size(src) == Files.size(bak)
+                && Files.getLastModifiedTime(src).equals(Files.getLastModifiedTime(bak));
+    }
 }
@@ -1,16 +1,28 @@
 package me.velyn.mcactivitymonitor.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Priority;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
 import me.velyn.mcactivitymonitor.data.ServerRecord;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @ApplicationScoped
 public class SchedulerService {
@@ -22,32 +34,178 @@ public class SchedulerService {
     @Inject
     DataProcessingService dataProcessingService;
 
+    @Inject
+    ActivityRecordWriter activityRecordWriter;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    /**
+     * Minimum minutes between two checks of a server
+     */
     @ConfigProperty(name = "scheduler.server.check.delay", defaultValue = "5")
     int serverCheckDelay;
 
+    /**
+     * Maximum minutes between two checks of a server that stays empty or offline
+     */
+    @ConfigProperty(name = "scheduler.server.check.max-interval", defaultValue = "60")
+    int serverCheckMaxInterval;
+
+    /**
+     * Servers with other interval bounds, as {@code server=min-max} entries in minutes
+     */
+    @ConfigProperty(name = "scheduler.server.check.interval.overrides")
+    Optional<List<String>> serverCheckIntervalOverrides;
+
+    /**
+     * Seconds over which the checks that are due in one tick are spread, should match the interval of the cron expression
+     */
+    @ConfigProperty(name = "scheduler.server.check.spread", defaultValue = "60")
+    int serverCheckSpread;
+
+    private final ExecutorService checkExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    /**
+     * Servers whose check is dispatched but not finished yet
+     */
+    private final Set<String> pendingChecks = ConcurrentHashMap.newKeySet();
+    /**
+     * Servers that were due in the last tick, including those whose check was still pending
+     */
+    private final AtomicInteger dueServers = new AtomicInteger();
+    /**
+     * Seconds since the server that waits longest was last fetched, as of the last tick
+     */
+    private final AtomicLong oldestFetchAge = new AtomicLong();
+    private final Map<String, ServerCheckQueue.Interval> intervalOverrides = new HashMap<>();
+    private ServerCheckQueue checkQueue;
+    /**
+     * The registry's set of servers the queue was last synced with, the set is replaced on every change
+     */
+    private Set<ServerRecord> syncedServers = null;
+
+    @PostConstruct
+    void init() {
+        ServerCheckQueue.Interval defaults = interval(serverCheckDelay, serverCheckMaxInterval);
+        for (String entry : serverCheckIntervalOverrides.orElse(List.of())) {
+            try {
+                int sep = entry.lastIndexOf('=');
+                String[] bounds = entry.substring(sep + 1).split("-");
+                if (sep <= 0 || bounds.length != 2) throw new IllegalArgumentException();
+                intervalOverrides.put(entry.substring(0, sep).trim(),
+                        interval(Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim())));
+            } catch (IllegalArgumentException e) {
+                Log.errorf("Ignoring invalid check interval override '%s', expected server=min-max in minutes", entry);
+            }
+        }
+        checkQueue = new ServerCheckQueue(server -> intervalOverrides.getOrDefault(server, defaults));
+        meterRegistry.gauge("scheduler.servers.due", dueServers);
+        meterRegistry.gauge("scheduler.servers.oldest-fetch-age", oldestFetchAge);
+        meterRegistry.gaugeCollectionSize("scheduler.checks.pending", Tags.empty(), pendingChecks);
+    }
+
+    /**
+     * Runs before the activity record writer, so the records of interrupted checks are still queued and written
+     */
+    static final int SHUTDOWN_PRIORITY = ActivityRecordWriter.SHUTDOWN_PRIORITY - 100;
+
+    void onStop(@Observes @Priority(SHUTDOWN_PRIORITY) ShutdownEvent ev) {
+        checkExecutor.shutdownNow();
+        try {
+            if (!checkExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                Log.warn("Server checks did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ServerCheckQueue.Interval interval(int minMinutes, int maxMinutes) {
+        Duration min = Duration.ofMinutes(Math.max(1, minMinutes));
+        Duration max = Duration.ofMinutes(Math.max(1, maxMinutes));
+        return new ServerCheckQueue.Interval(min, max.compareTo(min) < 0 ? min : max);
+    }
+
+    /**
+     * Dispatches the checks of all due servers and returns without waiting for them.
+     * Each check runs on its own virtual thread, staggered evenly over the spread window,
+     * and rate limits of the status provider are enforced by the provider.
+     */
     @Scheduled(identity = SCHEDULER_NAME,
             cron = "${scheduler.server.check.cron}",
             concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
     public void scheduledServerCheck() {
         LocalDateTime now = LocalDateTime.now();
         Set<ServerRecord> servers = dataStorageService.getServers();
+        if (servers != syncedServers) {
+            checkQueue.sync(servers);
+            dataProcessingService.retainCheckHealth(servers);
+            syncedServers = servers;
+        }
 
-        LocalDateTime checkDelay = now.minusMinutes(serverCheckDelay);
-        List<ServerRecord> checkServers = servers.stream()
-                .filter(sr -> checkDelay.isAfter(sr.lastFetchTime))
-                .sorted(Comparator.comparing(sr -> sr.lastFetchTime))
-                .toList();
+        List<ServerCheckQueue.Due> due = checkQueue.pollDue(now);
+        dueServers.set(due.size());
+        oldestFetchAge.set(due.stream()
+                .filter(d -> !LocalDateTime.MIN.equals(d.lastCheck()))
+                .mapToLong(d -> Duration.between(d.lastCheck(), now).toSeconds())
+                .max().orElse(0));
+        if (due.isEmpty()) {
+            return;
+        }
+        meterRegistry.counter("scheduler.checks.dispatched").increment(due.size());
 
-        // The API rate limits at 5 requests per second per IP
-        checkServers = checkServers.subList(0, Math.min(checkServers.size(), 5));
+        long staggerMillis = TimeUnit.SECONDS.toMillis(Math.max(0, serverCheckSpread)) / due.size();
+        Log.infof("Checking %d servers", due.size());
+        for (int i = 0; i < due.size(); i++) {
+            String server = due.get(i).server();
+            pendingChecks.add(server);
+            long delayMillis = i * staggerMillis;
+            checkExecutor.submit(() -> checkServer(server, delayMillis));
+        }
+    }
 
-        for (ServerRecord sr : checkServers) {
-            sr.lastFetchTime = now;
-            dataStorageService.writeServerRecord(sr);
+    private void checkServer(String server, long delayMillis) {
+        ActivityRecord result = null;
+        LocalDateTime started = null;
+        try {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            started = LocalDateTime.now();
+            // A server whose checks are suspended is not fetched, its last fetch time stays
+            if (!dataProcessingService.tryAcquireCheck(server)) {
+                meterRegistry.counter("scheduler.checks.skipped").increment();
+                return;
+            }
+            // The server may have been deleted while the check was waiting
+            if (!dataStorageService.markServerFetched(server, started)) {
+                dataProcessingService.releaseCheck(server);
+                return;
+            }
+            result = dataProcessingService.checkServer(server).orElse(null);
+            if (result != null) {
+                activityRecordWriter.submit(result);
+            }
+            meterRegistry.counter("scheduler.servers.checked").increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.errorf("Error checking server '%s'", server, e);
+        } finally {
+            // The next interval counts from the start of the check, like the last fetch time,
+            // but a server whose checks are suspended is not due before they resume
+            checkQueue.checked(server, started != null ? started : LocalDateTime.now(), result,
+                    dataProcessingService.getCheckHealth(server).retryAt());
+            pendingChecks.remove(server);
         }
+    }
 
-        Log.infof("Checking %d servers", checkServers.size());
-        dataStorageService.writeActivityRecords(dataProcessingService.checkServers(checkServers));
+    /**
+     * Runs before the backup, so backups of deleted segments are not copied again.
+     */
+    @Scheduled(cron = "0 50 23 * * ?", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void compactActivityRecords() {
+        dataStorageService.compactActivityRecords();
     }
 
     @Scheduled(cron = "30 0 0 * * ?")
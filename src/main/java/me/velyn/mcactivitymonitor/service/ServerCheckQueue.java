@@ -0,0 +1,151 @@
+package me.velyn.mcactivitymonitor.service;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.data.ServerRecord;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The tracked servers ordered by the time their next check is due, each with its own check interval.
+ * <p>
+ * The interval adapts to what the checks observe: a server whose status or player count changed is checked again
+ * after its minimum interval, one with players online after half its previous interval. A server that stays empty
+ * or offline backs off by doubling its interval up to its maximum. A check that failed keeps the interval,
+ * and a server whose checks are suspended by its circuit breaker is not due before they resume.
+ * <p>
+ * Servers are taken off the queue while their check runs and put back by {@link #checked}.
+ */
+public class ServerCheckQueue {
+
+    /**
+     * Bounds of a server's check interval.
+     */
+    public record Interval(Duration min, Duration max) {}
+
+    /**
+     * A server taken off the queue for a check.
+     *
+     * @param lastCheck time of the previous check, {@link LocalDateTime#MIN} if there was none
+     */
+    public record Due(String server, LocalDateTime due, LocalDateTime lastCheck) {}
+
+    private static final class Entry {
+        final String server;
+        final Interval bounds;
+        Duration interval;
+        LocalDateTime lastCheck;
+        LocalDateTime due;
+        ActivityRecord lastResult;
+        boolean queued;
+
+        Entry(String server, Interval bounds, LocalDateTime lastCheck) {
+            this.server = server;
+            this.bounds = bounds;
+            this.interval = bounds.min();
+            this.lastCheck = lastCheck;
+        }
+    }
+
+    private final Function<String, Interval> intervals;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparing((Entry e) -> e.due));
+
+    /**
+     * @param intervals bounds of the check interval per server
+     */
+    public ServerCheckQueue(Function<String, Interval> intervals) {
+        this.intervals = intervals;
+    }
+
+    /**
+     * Adds servers that are not tracked yet, due after their minimum interval since their last fetch,
+     * and drops servers that are no longer tracked.
+     */
+    public synchronized void sync(Collection<ServerRecord> servers) {
+        Set<String> tracked = new HashSet<>();
+        for (ServerRecord sr : servers) {
+            tracked.add(sr.server);
+            if (entries.containsKey(sr.server)) continue;
+            LocalDateTime lastFetch = sr.lastFetchTime != null ? sr.lastFetchTime : LocalDateTime.MIN;
+            Entry entry = new Entry(sr.server, intervals.apply(sr.server), lastFetch);
+            entries.put(sr.server, entry);
+            enqueue(entry, LocalDateTime.MIN.equals(lastFetch) ? LocalDateTime.MIN : lastFetch.plus(entry.interval));
+        }
+        if (tracked.size() == entries.size()) return;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (tracked.contains(entry.server)) continue;
+            it.remove();
+            if (entry.queued) queue.remove(entry);
+        }
+    }
+
+    /**
+     * Takes all servers due at the given time off the queue, the most overdue first.
+     */
+    public synchronized List<Due> pollDue(LocalDateTime now) {
+        List<Due> due = new ArrayList<>();
+        while (!queue.isEmpty() && !queue.peek().due.isAfter(now)) {
+            Entry entry = queue.poll();
+            entry.queued = false;
+            due.add(new Due(entry.server, entry.due, entry.lastCheck));
+        }
+        return due;
+    }
+
+    /**
+     * Puts a server taken off the queue back, due after its next interval.
+     *
+     * @param result    the record of the check, {@code null} if the check failed
+     * @param notBefore earliest time the server is due, {@code null} for no constraint
+     */
+    public synchronized void checked(String server, LocalDateTime time, ActivityRecord result, LocalDateTime notBefore) {
+        Entry entry = entries.get(server);
+        // Deleted while it was checked
+        if (entry == null || entry.queued) return;
+        if (result != null) {
+            entry.interval = nextInterval(entry, result);
+            entry.lastResult = result;
+        }
+        entry.lastCheck = time;
+        LocalDateTime due = time.plus(entry.interval);
+        enqueue(entry, notBefore != null && notBefore.isAfter(due) ? notBefore : due);
+    }
+
+    /**
+     * Current check interval of the server, {@code null} if it is not tracked.
+     */
+    public synchronized Duration getInterval(String server) {
+        Entry entry = entries.get(server);
+        return entry != null ? entry.interval : null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static Duration nextInterval(Entry entry, ActivityRecord result) {
+        ActivityRecord last = entry.lastResult;
+        boolean changed = last == null || last.online != result.online || last.playerCount != result.playerCount;
+        Duration next;
+        if (changed && last != null) {
+            next = entry.bounds.min();
+        } else if (result.online && result.playerCount > 0) {
+            next = entry.interval.dividedBy(2);
+        } else {
+            next = entry.interval.multipliedBy(2);
+        }
+        if (next.compareTo(entry.bounds.min()) < 0) return entry.bounds.min();
+        if (next.compareTo(entry.bounds.max()) > 0) return entry.bounds.max();
+        return next;
+    }
+
+    private void enqueue(Entry entry, LocalDateTime due) {
+        entry.due = due;
+        entry.queued = true;
+        queue.add(entry);
+    }
+}
@@ -1,16 +1,23 @@
 package me.velyn.mcactivitymonitor.service.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.logging.Log;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.data.ActivityRollup;
+import me.velyn.mcactivitymonitor.service.ActivityDownsampler;
 import me.velyn.mcactivitymonitor.service.DataStorageService;
 import me.velyn.mcactivitymonitor.service.DataStorageService.ActivityRecordFilter;
+import me.velyn.mcactivitymonitor.service.storage.ActivityRollupStore;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
@@ -19,12 +26,16 @@ import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -36,9 +47,16 @@ public class ActivitiesRest {
     @Inject
     DataStorageService dataStorageService;
 
+    @Inject
+    ObjectMapper objectMapper;
+
     @GET
     @Operation(summary = "Get activity records",
-            description = "Returns activity records grouped by server. Optionally filter by server and time range, and limit the number of records per server.")
+            description = "Returns activity records grouped by server. Optionally filter by server and time range, and limit the number of records per server. "
+                    + "Raw records above the limit are reduced with the selected downsampling mode. "
+                    + "With resolution 'hour' or 'day' pre-aggregated ActivityRollup entries are returned instead of raw records, "
+                    + "which are kept after the raw records were removed by the retention. Above the limit, 'first' keeps the oldest of them "
+                    + "and the other modes merge neighbouring entries.")
     @APIResponse(responseCode = "200", description = "Activity records grouped by server",
             content = @Content(schema = @Schema(
                     type = SchemaType.OBJECT,
@@ -57,7 +75,13 @@ public class ActivitiesRest {
                     example = "2025-01-31T23:59:59")
             @QueryParam("to") String to,
             @Parameter(description = "Max number of records per server to return (0 means no limit)", example = "30")
-            @QueryParam("maxDataPoints") int maxDataPoints) {
+            @QueryParam("maxDataPoints") int maxDataPoints,
+            @Parameter(description = "How raw records are reduced to maxDataPoints: first (oldest records), "
+                    + "lttb (shape preserving selection), avg or max (player count per fixed-width time bucket). "
+                    + "Rollups are reduced to the oldest with first and merged into fixed-width time buckets otherwise", example = "lttb")
+            @QueryParam("downsample") @DefaultValue("first") String downsample,
+            @Parameter(description = "Resolution of the returned data: raw, hour or day", example = "hour")
+            @QueryParam("resolution") @DefaultValue("raw") String resolution) {
 
         Log.debug("Starting getActivities Endpoint");
         LocalDateTime fromDateTime = null;
@@ -89,30 +113,89 @@ public class ActivitiesRest {
                     .build();
         }
 
+        ActivityRollupStore.Resolution rollupResolution = null;
+        if (resolution != null && !resolution.isBlank() && !"raw".equalsIgnoreCase(resolution.trim())) {
+            try {
+                rollupResolution = ActivityRollupStore.Resolution.valueOf(resolution.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Invalid 'resolution'. Expected one of: raw, hour, day")
+                        .build();
+            }
+        }
+
+        ActivityDownsampler.Mode downsampleMode;
+        try {
+            downsampleMode = ActivityDownsampler.Mode.valueOf(downsample.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid 'downsample'. Expected one of: first, lttb, avg, max")
+                    .build();
+        }
+
         String serverFilter = (server != null && !server.trim().isEmpty()) ? server.trim() : null;
 
         ActivityRecordFilter filter = new ActivityRecordFilter(fromDateTime, toDateTime, serverFilter);
 
-        Map<String, List<ActivityRecord>> records = dataStorageService.getActivityRecords(filter)
-                .stream()
-                .sorted(Comparator.comparing(ar -> ar.recordCreationTime))
-                .collect(Collectors.groupingBy(ar -> ar.server));
-
-        Log.debugf("Found %d activity records", records.size());
-
-        if (maxDataPoints > 0) {
-            Map<String, List<ActivityRecord>> truncatedRecords = new HashMap<>();
-            for (var entry : records.entrySet()) {
-                if (entry.getValue().size() <= maxDataPoints) {
-                    truncatedRecords.put(entry.getKey(), entry.getValue());
-                    continue;
-                }
-                truncatedRecords.put(entry.getKey(), entry.getValue().subList(0, maxDataPoints));
-            }
-            records = truncatedRecords;
+        if (rollupResolution != null) {
+            Map<String, List<ActivityRollup>> rollups = dataStorageService.getActivityRollups(rollupResolution, filter)
+                    .stream()
+                    .collect(Collectors.groupingBy(r -> r.server));
+            rollups.replaceAll((srv, list) -> ActivityDownsampler.reduceRollups(downsampleMode, maxDataPoints, list));
+            Log.debug("End getActivities Endpoint");
+            return Response.ok(rollups).build();
         }
 
-        Log.debug("End getActivities Endpoint");
-        return Response.ok(records).build();
+        StreamingOutput output = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartObject();
+                dataStorageService.forEachActivityRecordByServer(filter, new DataStorageService.ActivityRecordVisitor() {
+                    private ActivityDownsampler downsampler;
+
+                    @Override
+                    public void beginServer(String srv, long count, LocalDateTime first, LocalDateTime last) throws IOException {
+                        generator.writeArrayFieldStart(srv);
+                        downsampler = ActivityDownsampler.create(downsampleMode, maxDataPoints, count, first, last, generator::writeObject);
+                    }
+
+                    @Override
+                    public boolean visit(ActivityRecord ar) throws IOException {
+                        // Stops reading this server's records once the downsampler has enough
+                        return downsampler.accept(ar);
+                    }
+
+                    @Override
+                    public void endServer(String srv) throws IOException {
+                        downsampler.finish();
+                        generator.writeEndArray();
+                    }
+                });
+                generator.writeEndObject();
+            }
+            Log.debug("End getActivities Endpoint");
+        };
+        return Response.ok(output).build();
+    }
+
+    @GET
+    @Path("/export")
+    @Produces("text/csv")
+    @Operation(summary = "Export activity records as CSV",
+            description = "Streams the stored activity records in the CSV format used by the activity record files. Optionally filter by server.")
+    @APIResponse(responseCode = "200", description = "Activity records as semicolon separated CSV")
+    public Response exportActivities(
+            @Parameter(description = "Only export data for this exact server name", example = "play.example.net")
+            @QueryParam("server") String server) {
+        String serverFilter = (server != null && !server.trim().isEmpty()) ? server.trim() : null;
+        ActivityRecordFilter filter = new ActivityRecordFilter(null, null, serverFilter);
+
+        StreamingOutput output = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            dataStorageService.exportActivityRecordsCsv(filter, writer);
+            writer.flush();
+        };
+        return Response.ok(output)
+                .header("Content-Disposition", "attachment; filename=\"activity-records.csv\"")
+                .build();
     }
 }
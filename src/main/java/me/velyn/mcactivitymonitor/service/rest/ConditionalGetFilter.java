@@ -0,0 +1,120 @@
+package me.velyn.mcactivitymonitor.service.rest;
+
+import io.quarkus.vertx.http.runtime.filters.Filters;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import me.velyn.mcactivitymonitor.service.DataStorageService;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+
+/**
+ * Answers conditional GET requests for the data endpoints and UI fragments from the data version alone.
+ * <p>
+ * Responses carry an {@code ETag} and {@code Last-Modified} of the {@link DataStorageService#getDataVersion() data version}
+ * they were computed at. A request whose {@code If-None-Match} (or, without it, {@code If-Modified-Since}) matches the
+ * current version is answered with {@code 304} before it reaches the resource or template, so repeated polls without
+ * new data neither read the storage nor render anything.
+ * <p>
+ * Resources whose default time window is relative to today, like the activity table of the last days, also change at
+ * midnight without new data. Their tag includes the date and they count as modified at the start of the day.
+ */
+@ApplicationScoped
+public class ConditionalGetFilter {
+    private static final Set<String> PATHS = Set.of(
+            "/rest/activities",
+            "/rest/activities/export",
+            "/rest/servers",
+            "/rest/servers/status",
+            "/rest/statistics",
+            "/serverTable.html",
+            "/serverActivityTable.html");
+    private static final Set<String> DAY_RELATIVE_PATHS = Set.of(
+            "/rest/activities",
+            "/serverActivityTable.html");
+    // Versions restart with the application, so tags of an earlier run must not match
+    private static final String INSTANCE = Long.toString(System.currentTimeMillis(), 36);
+    private static final int FILTER_PRIORITY = 100;
+
+    @Inject
+    DataStorageService dataStorageService;
+
+    void registerFilter(@Observes Filters filters) {
+        filters.register(this::filter, FILTER_PRIORITY);
+    }
+
+    void filter(RoutingContext rc) {
+        HttpServerRequest request = rc.request();
+        boolean read = HttpMethod.GET.equals(request.method()) || HttpMethod.HEAD.equals(request.method());
+        if (!read || !PATHS.contains(request.path())) {
+            rc.next();
+            return;
+        }
+
+        // Taken before the response is computed, a write meanwhile only makes the next request miss
+        DataStorageService.DataVersion version = dataStorageService.getDataVersion();
+        String etag;
+        Instant modified = version.modified();
+        if (DAY_RELATIVE_PATHS.contains(request.path())) {
+            LocalDate today = LocalDate.now();
+            etag = "\"" + INSTANCE + "-" + version.version() + "-" + today.format(DateTimeFormatter.BASIC_ISO_DATE) + "\"";
+            Instant startOfDay = today.atStartOfDay(ZoneId.systemDefault()).toInstant();
+            if (modified.isBefore(startOfDay)) modified = startOfDay;
+        } else {
+            etag = "\"" + INSTANCE + "-" + version.version() + "\"";
+        }
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(modified.atZone(ZoneOffset.UTC));
+
+        if (isNotModified(request, etag, modified)) {
+            rc.response()
+                    .setStatusCode(304)
+                    .putHeader("ETag", etag)
+                    .putHeader("Last-Modified", lastModified)
+                    .end();
+            return;
+        }
+        rc.addHeadersEndHandler(v -> {
+            HttpServerResponse response = rc.response();
+            if (response.getStatusCode() != 200) return;
+            response.putHeader("ETag", etag);
+            response.putHeader("Last-Modified", lastModified);
+            // Let browsers keep the response, but revalidate it on every use
+            response.putHeader("Cache-Control", "no-cache");
+        });
+        rc.next();
+    }
+
+    private static boolean isNotModified(HttpServerRequest request, String etag, Instant modified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag)) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                Instant since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                // HTTP dates have second precision
+                return modified.getEpochSecond() <= since.getEpochSecond();
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,136 @@
+package me.velyn.mcactivitymonitor.service.rest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseBroadcaster;
+import jakarta.ws.rs.sse.SseEventSink;
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.service.DataStorageService;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes every committed change of the stored data to all connected clients as Server-Sent Events,
+ * so they do not have to poll. The work per change is one serialization per client, independent of how often
+ * the clients would otherwise refresh.
+ */
+@Path("/rest/events")
+@ApplicationScoped
+@Tag(name = "Events", description = "Receive new activity records and server changes as they happen")
+public class EventsRest implements DataStorageService.DataChangeListener {
+
+    @Inject
+    DataStorageService dataStorageService;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final AtomicInteger clients = new AtomicInteger();
+    private volatile Sse sse = null;
+    private volatile SseBroadcaster broadcaster = null;
+
+    @PostConstruct
+    void init() {
+        meterRegistry.gauge("rest.events.clients", clients);
+        dataStorageService.addDataChangeListener(this);
+    }
+
+    @PreDestroy
+    void destroy() {
+        dataStorageService.removeDataChangeListener(this);
+        SseBroadcaster b = broadcaster;
+        if (b != null) {
+            b.close();
+        }
+    }
+
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Operation(summary = "Subscribe to data changes",
+            description = "Streams an 'activities' event with the array of ActivityRecord entries of every write, and a 'server' event "
+                    + "with a ServerEvent for every tracked server that is added, removed or fetched. The event id is the data "
+                    + "version that includes the change. Events missed while disconnected are not replayed, clients "
+                    + "should reload their data after reconnecting.")
+    @APIResponse(responseCode = "200", description = "Event stream")
+    public void subscribe(@Context SseEventSink sink, @Context Sse sse) {
+        broadcasterOf(sse).register(sink);
+        clients.incrementAndGet();
+        // Tells the client it is connected right away, without waiting for the first change
+        sink.send(sse.newEventBuilder().comment("connected").build());
+    }
+
+    private synchronized SseBroadcaster broadcasterOf(Sse sse) {
+        if (broadcaster == null) {
+            SseBroadcaster created = sse.newBroadcaster();
+            created.onClose(sink -> clients.decrementAndGet());
+            created.onError((sink, e) -> Log.debugf("Failed to send event to a client: %s", e.toString()));
+            this.sse = sse;
+            broadcaster = created;
+        }
+        return broadcaster;
+    }
+
+    @Override
+    public void activityRecordsWritten(DataStorageService.ActivityRecordsWritten event) {
+        broadcast(event.version(), "activities", ActivityRecord[].class, event.records().toArray(new ActivityRecord[0]));
+    }
+
+    @Override
+    public void serverChanged(DataStorageService.ServerChanged event) {
+        broadcast(event.version(), "server", ServerEvent.class,
+                new ServerEvent(event.change(), event.server(), event.lastFetchTime()));
+    }
+
+    /**
+     * Keeps idle connections from being closed by proxies.
+     */
+    @Scheduled(every = "30s")
+    void keepAlive() {
+        Sse s = sse;
+        SseBroadcaster b = broadcaster;
+        if (s == null || b == null || clients.get() == 0) return;
+        b.broadcast(s.newEventBuilder().comment("keep-alive").build());
+    }
+
+    private void broadcast(long version, String name, Class<?> type, Object data) {
+        Sse s = sse;
+        SseBroadcaster b = broadcaster;
+        if (s == null || b == null || clients.get() == 0) return;
+        // Sent asynchronously, a slow client never delays the write that caused the event
+        OutboundSseEvent sseEvent = s.newEventBuilder()
+                .id(String.valueOf(version))
+                .name(name)
+                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                .data(type, data)
+                .build();
+        b.broadcast(sseEvent);
+        meterRegistry.counter("rest.events.sent", "event", name).increment();
+    }
+
+    @Schema(name = "ServerEvent", description = "A tracked server that was added, removed or fetched")
+    public record ServerEvent(
+            @Schema(description = "What happened to the server", examples = "FETCHED")
+            DataStorageService.ServerChange change,
+            @Schema(description = "Server hostname", examples = "play.example.net")
+            String server,
+            @Schema(description = "Time the server was fetched, null unless the change is FETCHED", examples = "2025-01-10T12:34:56")
+            LocalDateTime lastFetchTime
+    ) {}
+}
@@ -5,6 +5,7 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import me.velyn.mcactivitymonitor.service.DataStorageService;
+import me.velyn.mcactivitymonitor.service.storage.ServerRegistry;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
@@ -26,8 +27,14 @@ public class ServerRest {
     @RequestBody(
             content = @Content(mediaType = MediaType.TEXT_PLAIN, schema = @Schema(examples = "play.example.net")))
     @APIResponse(responseCode = "200", description = "Server added")
+    @APIResponse(responseCode = "400", description = "Blank server, or containing whitespace, control characters or ';'")
     public Response addServer(String server) {
-        dataStorageService.addServer(server);
+        String name = server != null ? server.strip() : null;
+        if (!ServerRegistry.isValidName(name)) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Server must not be blank or contain whitespace, control characters or ';'").build();
+        }
+        dataStorageService.addServer(name);
         return Response.ok().build();
     }
     
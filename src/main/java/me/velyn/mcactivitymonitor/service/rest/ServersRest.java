@@ -6,7 +6,9 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
 import me.velyn.mcactivitymonitor.data.ServerRecord;
+import me.velyn.mcactivitymonitor.service.DataProcessingService;
 import me.velyn.mcactivitymonitor.service.DataStorageService;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
@@ -14,7 +16,12 @@ import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Path("/rest/servers")
 @Produces(MediaType.APPLICATION_JSON)
@@ -24,12 +31,45 @@ public class ServersRest {
     @Inject
     DataStorageService dataStorageService;
 
+    @Inject
+    DataProcessingService dataProcessingService;
+
     @GET
-    @Operation(summary = "List servers", description = "Returns the set of tracked servers.")
+    @Operation(summary = "List servers",
+            description = "Returns the set of tracked servers with the state of their checks' circuit breakers.")
     @APIResponse(responseCode = "200", description = "Set of servers",
             content = @Content(schema = @Schema(implementation = ServerRecord[].class)))
     public Response getServers() {
-        Set<ServerRecord> servers = dataStorageService.getServers();
+        List<ServerRecord> servers = dataStorageService.getServers().stream()
+                .map(dataProcessingService::withCheckHealth)
+                .toList();
         return Response.ok(servers).build();
     }
+
+    @GET
+    @Path("/status")
+    @Operation(summary = "List servers with their current status",
+            description = "Returns the tracked servers together with their most recent activity record.")
+    @APIResponse(responseCode = "200", description = "Servers with their latest status",
+            content = @Content(schema = @Schema(implementation = ServerStatus[].class)))
+    public Response getServerStatus() {
+        Set<ServerRecord> servers = dataStorageService.getServers();
+        Map<String, ActivityRecord> latest = dataStorageService.getLastActivityRecords(
+                servers.stream().map(sr -> sr.server).collect(Collectors.toSet()));
+        List<ServerStatus> status = servers.stream()
+                .sorted(Comparator.comparing(sr -> sr.server))
+                .map(sr -> new ServerStatus(sr.server, sr.lastFetchTime, latest.get(sr.server)))
+                .toList();
+        return Response.ok(status).build();
+    }
+
+    @Schema(name = "ServerStatus", description = "A tracked server with its most recent activity record")
+    public record ServerStatus(
+            @Schema(description = "Server hostname", examples = "play.example.net")
+            String server,
+            @Schema(description = "Last time data was fetched for this server", examples = "2025-01-10T12:34:56")
+            LocalDateTime lastFetchTime,
+            @Schema(description = "Most recent activity record, null if the server has not been checked yet")
+            ActivityRecord latest
+    ) {}
 }
@@ -13,6 +13,11 @@ import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Objects;
+
 @Path("/rest/statistics")
 @Produces(MediaType.APPLICATION_JSON)
 @Tag(name = "Statistics", description = "Retrieve a short statistical overview of the application's current state. Useful for dashboards.")
@@ -27,13 +32,36 @@ public class StatisticsRest {
     @APIResponse(responseCode = "200", description = "Statistics payload",
             content = @Content(schema = @Schema(implementation = Statistics.class)))
     public Response getStatistics() {
+        List<ServerStatistics> servers = dataStorageService.getActivityServerStatistics().stream()
+                .map(ss -> new ServerStatistics(ss.server(), ss.count(),
+                        toLocalDateTime(ss.firstCreationTime()), toLocalDateTime(ss.lastCreationTime())))
+                .toList();
+        LocalDateTime first = servers.stream().map(ServerStatistics::firstRecordTime)
+                .filter(Objects::nonNull).min(LocalDateTime::compareTo).orElse(null);
+        LocalDateTime last = servers.stream().map(ServerStatistics::lastRecordTime)
+                .filter(Objects::nonNull).max(LocalDateTime::compareTo).orElse(null);
         return Response.ok(new Statistics(
                 dataStorageService.getServers().size(),
                 dataStorageService.getActivityRecordsCount(),
-                dataStorageService.getDistinctDaysCount()
+                dataStorageService.getDistinctDaysCount(),
+                first,
+                last,
+                dataStorageService.getActivityRecordsSize(),
+                servers,
+                toCompaction(dataStorageService.getLastCompactionReport())
         )).build();
     }
 
+    private static Compaction toCompaction(DataStorageService.CompactionReport report) {
+        if (report == null) return null;
+        return new Compaction(report.cutoff(), report.finishedAt(), report.segmentsDeleted(), report.segmentsRewritten(),
+                report.recordsRemoved(), report.bytesReclaimed(), report.durationMillis());
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochSecond) {
+        return epochSecond != Long.MIN_VALUE ? LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC) : null;
+    }
+
     @Schema(name = "Statistics", description = "High-level application counters")
     public record Statistics(
             @Schema(description = "Number of tracked servers", examples = "3")
@@ -41,6 +69,46 @@ public class StatisticsRest {
             @Schema(description = "Total number of recorded activity entries", examples = "12456")
             long recordedActivitiesCount,
             @Schema(description = "Number of distinct days with recorded activity entries", examples = "12456")
-            long recordedDaysCount
+            long recordedDaysCount,
+            @Schema(description = "Creation time of the oldest recorded activity entry", examples = "2025-01-01T00:00:12")
+            LocalDateTime firstRecordTime,
+            @Schema(description = "Creation time of the newest recorded activity entry", examples = "2025-01-10T12:34:56")
+            LocalDateTime lastRecordTime,
+            @Schema(description = "Size of the activity record files in bytes", examples = "1048576")
+            long activityRecordsBytes,
+            @Schema(description = "Counters per server with recorded activity entries")
+            List<ServerStatistics> servers,
+            @Schema(description = "Last compaction of old activity entries since the start, null if none ran yet")
+            Compaction lastCompaction
+    ) {}
+
+    @Schema(name = "Compaction", description = "Outcome of removing activity entries older than the retention period")
+    public record Compaction(
+            @Schema(description = "Entries created before this time were removed, their rollups remain", examples = "2024-12-11T00:00:00")
+            LocalDateTime cutoff,
+            @Schema(description = "Time the compaction finished", examples = "2025-01-10T23:50:02")
+            LocalDateTime finishedAt,
+            @Schema(description = "Number of deleted activity record files", examples = "1")
+            int segmentsDeleted,
+            @Schema(description = "Number of rewritten activity record files", examples = "1")
+            int segmentsRewritten,
+            @Schema(description = "Number of removed activity entries", examples = "43200")
+            long recordsRemoved,
+            @Schema(description = "Bytes freed, including backups of deleted files", examples = "3145728")
+            long bytesReclaimed,
+            @Schema(description = "Duration of the compaction in milliseconds", examples = "1520")
+            long durationMillis
+    ) {}
+
+    @Schema(name = "ServerStatistics", description = "Counters of a single server")
+    public record ServerStatistics(
+            @Schema(description = "Server hostname", examples = "play.example.net")
+            String server,
+            @Schema(description = "Number of recorded activity entries of this server", examples = "4152")
+            long recordedActivitiesCount,
+            @Schema(description = "Creation time of the server's oldest recorded activity entry", examples = "2025-01-01T00:00:12")
+            LocalDateTime firstRecordTime,
+            @Schema(description = "Creation time of the server's newest recorded activity entry", examples = "2025-01-10T12:34:56")
+            LocalDateTime lastRecordTime
     ) {}
 }
@@ -0,0 +1,404 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Parses the rows of CSV activity record files directly from their bytes.
+ * <p>
+ * Rows have the five columns {@code recordCreationTime;dataRetrievalTime;online;server;playerCount} as the
+ * {@code CSVPrinter} of the storage service writes them, including quoted fields. Times are decoded from their
+ * ISO_LOCAL_DATE_TIME digits into epoch seconds of the time interpreted as UTC, and server names are resolved through
+ * a cache of the names seen before, which hands out the {@link ServerDictionary}'s instance of a name if it has one.
+ * A row can therefore be inspected and filtered without allocating, only {@link #toActivityRecord()} creates objects.
+ * <p>
+ * The parser holds the values of the current row and is not thread-safe. Rows that do not have five columns
+ * or have malformed times, like the header line, are skipped. Fields with line breaks are not supported.
+ */
+public final class ActivityCsvParser {
+    private static final byte SEPARATOR = ';';
+    private static final byte QUOTE = '"';
+    private static final int COLUMNS = 5;
+    private static final int COLUMN_CREATION_TIME = 0;
+    private static final int COLUMN_RETRIEVAL_TIME = 1;
+    private static final int COLUMN_ONLINE = 2;
+    private static final int COLUMN_SERVER = 3;
+    private static final int COLUMN_PLAYER_COUNT = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CACHED_SERVERS = 4096;
+
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * Called for every row, its values are read from the parser and only valid during the call.
+         */
+        void row(ActivityCsvParser row) throws IOException;
+    }
+
+    // Fields of the current row, quoted fields are unescaped into the scratch buffers
+    private final byte[][] fieldBuffers = new byte[COLUMNS][];
+    private final int[] fieldOffsets = new int[COLUMNS];
+    private final int[] fieldLengths = new int[COLUMNS];
+    private final byte[][] scratch = new byte[COLUMNS][];
+
+    private long creationTime;
+    private int creationNanos;
+    private long retrievalTime;
+    private int retrievalNanos;
+    private boolean online;
+    private int playerCount;
+    // Result of the last parseTime
+    private long parsedSeconds;
+    private int parsedNanos;
+
+    // Open addressing table from server name bytes to the name
+    private byte[][] serverKeys = new byte[64][];
+    private String[] serverNames = new String[64];
+    private int cachedServers = 0;
+    private final ServerDictionary dictionary;
+
+    public ActivityCsvParser() {
+        this(null);
+    }
+
+    /**
+     * @param dictionary to share server names with, may be null
+     */
+    public ActivityCsvParser(ServerDictionary dictionary) {
+        this.dictionary = dictionary;
+        for (int i = 0; i < COLUMNS; i++) {
+            scratch[i] = new byte[64];
+        }
+    }
+
+    /**
+     * Parses all rows of the stream and hands every valid row to the handler.
+     */
+    public void parse(InputStream in, RowHandler handler) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = 0;
+        int lineStart = 0;
+        int n;
+        while ((n = in.read(buffer, length, buffer.length - length)) >= 0) {
+            int scanFrom = length;
+            length += n;
+            for (int i = scanFrom; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    if (parseLine(buffer, lineStart, i)) handler.row(this);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart > 0) {
+                System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+                length -= lineStart;
+                lineStart = 0;
+            } else if (length == buffer.length) {
+                // A line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        if (length > lineStart && parseLine(buffer, lineStart, length)) {
+            handler.row(this);
+        }
+    }
+
+    /**
+     * Parses the line within {@code [offset, end)} of the buffer, without its line break.
+     *
+     * @return whether the line is a valid row, only then the row values may be read
+     */
+    public boolean parseLine(byte[] buffer, int offset, int end) {
+        if (end > offset && buffer[end - 1] == '\r') end--;
+        if (end <= offset || !splitFields(buffer, offset, end)) return false;
+
+        if (!parseTime(COLUMN_CREATION_TIME)) return false;
+        creationTime = parsedSeconds;
+        creationNanos = parsedNanos;
+        if (!parseTime(COLUMN_RETRIEVAL_TIME)) return false;
+        retrievalTime = parsedSeconds;
+        retrievalNanos = parsedNanos;
+        online = parseBoolean(COLUMN_ONLINE);
+        playerCount = parseInt(COLUMN_PLAYER_COUNT);
+        return true;
+    }
+
+    // ---------------------
+    // Row values
+    // ---------------------
+
+    /**
+     * Record creation time in epoch seconds, or {@link ActivitySeriesStore#NO_TIME}.
+     */
+    public long creationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Data retrieval time in epoch seconds, or {@link ActivitySeriesStore#NO_TIME}.
+     */
+    public long retrievalTime() {
+        return retrievalTime;
+    }
+
+    public boolean online() {
+        return online;
+    }
+
+    public int playerCount() {
+        return playerCount;
+    }
+
+    /**
+     * Whether the server of the row is the one given as UTF-8 bytes.
+     */
+    public boolean serverEquals(byte[] server) {
+        int offset = fieldOffsets[COLUMN_SERVER];
+        return Arrays.equals(fieldBuffers[COLUMN_SERVER], offset, offset + fieldLengths[COLUMN_SERVER], server, 0, server.length);
+    }
+
+    /**
+     * Server of the row. The same name is returned as the same instance.
+     */
+    public String server() {
+        byte[] buffer = fieldBuffers[COLUMN_SERVER];
+        int offset = fieldOffsets[COLUMN_SERVER];
+        int length = fieldLengths[COLUMN_SERVER];
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int mask = serverKeys.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (serverKeys[slot] != null) {
+            byte[] key = serverKeys[slot];
+            if (Arrays.equals(key, 0, key.length, buffer, offset, offset + length)) return serverNames[slot];
+            slot = (slot + 1) & mask;
+        }
+        String name = new String(buffer, offset, length, StandardCharsets.UTF_8);
+        if (dictionary != null) {
+            name = dictionary.intern(name);
+        }
+        if (cachedServers < MAX_CACHED_SERVERS) {
+            serverKeys[slot] = Arrays.copyOfRange(buffer, offset, offset + length);
+            serverNames[slot] = name;
+            if (++cachedServers * 2 > serverKeys.length) growServerCache();
+        }
+        return name;
+    }
+
+    /**
+     * Whether the creation time of the row lies within {@code [from, to]}. Null bounds are open,
+     * rows without creation time are always within.
+     */
+    public boolean createdWithin(LocalDateTime from, LocalDateTime to) {
+        if (creationTime == ActivitySeriesStore.NO_TIME) return true;
+        if (from != null && compareCreationTime(from) < 0) return false;
+        return to == null || compareCreationTime(to) <= 0;
+    }
+
+    public ActivityRecord toActivityRecord() {
+        ActivityRecord ar = new ActivityRecord();
+        ar.recordCreationTime = toLocalDateTime(creationTime, creationNanos);
+        ar.dataRetrievalTime = toLocalDateTime(retrievalTime, retrievalNanos);
+        ar.online = online;
+        ar.server = server();
+        ar.playerCount = playerCount;
+        return ar;
+    }
+
+    // ---------------------
+    // Decoding
+    // ---------------------
+
+    /**
+     * Decodes an ISO_LOCAL_DATE_TIME ({@code yyyy-MM-ddTHH:mm[:ss[.fraction]]}) into epoch seconds of the time
+     * interpreted as UTC.
+     *
+     * @return the epoch seconds, or {@link ActivitySeriesStore#NO_TIME} if the bytes are not such a time
+     */
+    public static long parseEpochSecond(byte[] b, int offset, int length) {
+        int end = offset + length;
+        if (length < 16 || b[offset + 4] != '-' || b[offset + 7] != '-' || b[offset + 10] != 'T' || b[offset + 13] != ':') {
+            return ActivitySeriesStore.NO_TIME;
+        }
+        int year = digits(b, offset, 4);
+        int month = digits(b, offset + 5, 2);
+        int day = digits(b, offset + 8, 2);
+        int hour = digits(b, offset + 11, 2);
+        int minute = digits(b, offset + 14, 2);
+        int second = 0;
+        int i = offset + 16;
+        if (i < end) {
+            if (b[i] != ':' || end - i < 3) return ActivitySeriesStore.NO_TIME;
+            second = digits(b, i + 1, 2);
+            i += 3;
+            if (i < end) {
+                if (b[i] != '.' || end - i < 2 || end - i > 10 || digits(b, i + 1, end - i - 1) < 0) return ActivitySeriesStore.NO_TIME;
+            }
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return ActivitySeriesStore.NO_TIME;
+        }
+        return epochDay(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+    }
+
+    private boolean parseTime(int column) {
+        byte[] b = fieldBuffers[column];
+        int offset = fieldOffsets[column];
+        int length = fieldLengths[column];
+        parsedNanos = 0;
+        if (length == 0) {
+            parsedSeconds = ActivitySeriesStore.NO_TIME;
+            return true;
+        }
+        parsedSeconds = parseEpochSecond(b, offset, length);
+        if (parsedSeconds == ActivitySeriesStore.NO_TIME) return false;
+        // Fraction digits, validated by parseEpochSecond
+        int fraction = offset + 20;
+        int end = offset + length;
+        if (fraction < end) {
+            int nanos = digits(b, fraction, end - fraction);
+            for (int i = end - fraction; i < 9; i++) nanos *= 10;
+            parsedNanos = nanos;
+        }
+        return true;
+    }
+
+    private boolean parseBoolean(int column) {
+        byte[] b = fieldBuffers[column];
+        int offset = fieldOffsets[column];
+        int length = fieldLengths[column];
+        if (length == 1) return b[offset] == '1';
+        return length == 4
+                && (b[offset] | 0x20) == 't' && (b[offset + 1] | 0x20) == 'r'
+                && (b[offset + 2] | 0x20) == 'u' && (b[offset + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * @return the number, or 0 if the field is not a number
+     */
+    private int parseInt(int column) {
+        byte[] b = fieldBuffers[column];
+        int i = fieldOffsets[column];
+        int end = i + fieldLengths[column];
+        if (i == end) return 0;
+        boolean negative = b[i] == '-';
+        if (negative || b[i] == '+') i++;
+        if (i == end) return 0;
+        long value = 0;
+        for (; i < end; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) return 0;
+            value = value * 10 + d;
+            if (value > Integer.MAX_VALUE + 1L) return 0;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? 0 : (int) value;
+    }
+
+    /**
+     * Splits the line into exactly {@link #COLUMNS} fields.
+     */
+    private boolean splitFields(byte[] b, int offset, int end) {
+        int column = 0;
+        int i = offset;
+        while (true) {
+            if (column == COLUMNS) return false;
+            if (i < end && b[i] == QUOTE) {
+                byte[] s = scratch[column];
+                int n = 0;
+                i++;
+                while (true) {
+                    if (i >= end) return false;
+                    byte c = b[i++];
+                    if (c == QUOTE) {
+                        if (i < end && b[i] == QUOTE) i++;
+                        else break;
+                    }
+                    if (n == s.length) s = scratch[column] = Arrays.copyOf(s, n * 2);
+                    s[n++] = c;
+                }
+                if (i < end && b[i] != SEPARATOR) return false;
+                fieldBuffers[column] = s;
+                fieldOffsets[column] = 0;
+                fieldLengths[column] = n;
+            } else {
+                int start = i;
+                while (i < end && b[i] != SEPARATOR) i++;
+                fieldBuffers[column] = b;
+                fieldOffsets[column] = start;
+                fieldLengths[column] = i - start;
+            }
+            column++;
+            if (i >= end) break;
+            i++;
+        }
+        return column == COLUMNS;
+    }
+
+    private int compareCreationTime(LocalDateTime time) {
+        int c = Long.compare(creationTime, time.toEpochSecond(ZoneOffset.UTC));
+        return c != 0 ? c : Integer.compare(creationNanos, time.getNano());
+    }
+
+    private void growServerCache() {
+        byte[][] keys = serverKeys;
+        String[] names = serverNames;
+        serverKeys = new byte[keys.length * 2][];
+        serverNames = new String[keys.length * 2];
+        int mask = serverKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] == null) continue;
+            int hash = 1;
+            for (byte x : keys[j]) hash = 31 * hash + x;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (serverKeys[slot] != null) slot = (slot + 1) & mask;
+            serverKeys[slot] = keys[j];
+            serverNames[slot] = names[j];
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochSecond, int nanos) {
+        return epochSecond != ActivitySeriesStore.NO_TIME ? LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC) : null;
+    }
+
+    /**
+     * @return the value of the decimal digits, or -1 if any of them is not a digit
+     */
+    private static int digits(byte[] b, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+}
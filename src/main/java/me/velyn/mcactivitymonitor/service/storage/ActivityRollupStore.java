@@ -0,0 +1,244 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRollup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hourly or daily aggregates of the activity records of each server, kept in memory and updated per record.
+ * <p>
+ * Buckets are persisted once they are complete ("sealed"): the rollup file is append-only and holds one
+ * {@code server;bucketStart;count;onlineCount;playerSum;min;max} line per bucket and a {@code #sealed;<epochSecond>}
+ * marker after every seal. On load the last line of a bucket wins, and records from the last marker on have to be
+ * replayed from the raw data. The retention of the raw records does not apply to the rollups, so the file keeps
+ * growing by one line per server and bucket.
+ * <p>
+ * Queries may run concurrently with everything else, but {@link #add} and {@link #seal} have to be serialized by the
+ * caller: a record added while a seal is in progress could be lost from the file or land below the new sealed time.
+ */
+public class ActivityRollupStore {
+    private static final char SEPARATOR = ';';
+    private static final String SEALED_MARKER = "#sealed";
+
+    public enum Resolution {
+        HOUR(3600),
+        DAY(86_400);
+
+        private final long seconds;
+
+        Resolution(long seconds) {
+            this.seconds = seconds;
+        }
+
+        public long bucketStart(long epochSecond) {
+            return Math.floorDiv(epochSecond, seconds) * seconds;
+        }
+    }
+
+    private final Resolution resolution;
+    private final Path path;
+    private final Map<String, RollupSeries> series = new ConcurrentHashMap<>();
+    // Buckets that received records after they were sealed and have to be persisted again
+    private final Set<Map.Entry<String, Long>> lateBuckets = ConcurrentHashMap.newKeySet();
+    private volatile long sealedUntil = Long.MIN_VALUE;
+
+    private ActivityRollupStore(Resolution resolution, Path path) {
+        this.resolution = resolution;
+        this.path = path;
+    }
+
+    public static ActivityRollupStore load(Resolution resolution, Path path) throws IOException {
+        ActivityRollupStore store = new ActivityRollupStore(resolution, path);
+        if (!Files.exists(path)) return store;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(String.valueOf(SEPARATOR));
+                if (parts.length == 2 && SEALED_MARKER.equals(parts[0])) {
+                    store.sealedUntil = Long.parseLong(parts[1]);
+                } else if (parts.length == 7) {
+                    store.series.computeIfAbsent(parts[0], RollupSeries::new).put(
+                            Long.parseLong(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+                            Long.parseLong(parts[4]), Integer.parseInt(parts[5]), Integer.parseInt(parts[6]));
+                }
+            }
+        }
+        return store;
+    }
+
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Epoch second before which all buckets are persisted. Records created from then on are not covered by the rollup file.
+     */
+    public long getSealedUntil() {
+        return sealedUntil;
+    }
+
+    public void add(String server, long creationTime, boolean online, int playerCount) {
+        if (server == null || creationTime == ActivitySeriesStore.NO_TIME) return;
+        long bucket = resolution.bucketStart(creationTime);
+        series.computeIfAbsent(server, RollupSeries::new).add(bucket, online, playerCount);
+        if (bucket < sealedUntil) {
+            lateBuckets.add(Map.entry(server, bucket));
+        }
+    }
+
+    /**
+     * Persists all buckets that end before the bucket containing {@code nowEpochSecond}.
+     */
+    public synchronized void seal(long nowEpochSecond) throws IOException {
+        long cutoff = resolution.bucketStart(nowEpochSecond);
+        if (cutoff <= sealedUntil && lateBuckets.isEmpty()) return;
+
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Long> late : lateBuckets) {
+            RollupSeries s = series.get(late.getKey());
+            if (s != null) s.appendLines(late.getValue(), late.getValue() + 1, lines);
+        }
+        lateBuckets.clear();
+        if (cutoff > sealedUntil) {
+            for (RollupSeries s : series.values()) {
+                s.appendLines(sealedUntil, cutoff, lines);
+            }
+        }
+        long newSealedUntil = Math.max(cutoff, sealedUntil);
+        lines.add(SEALED_MARKER + SEPARATOR + newSealedUntil);
+
+        Path parent = path.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Files.write(path, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        sealedUntil = newSealedUntil;
+    }
+
+    /**
+     * Returns the buckets of the given server (or all servers if {@code server} is null)
+     * starting within {@code [from, to]}, ordered by bucket start and server.
+     */
+    public List<ActivityRollup> query(LocalDateTime from, LocalDateTime to, String server) {
+        long fromSec = from != null ? resolution.bucketStart(ActivitySeriesStore.toEpochSecond(from)) : Long.MIN_VALUE;
+        long toSec = to != null ? ActivitySeriesStore.toEpochSecond(to) : Long.MAX_VALUE;
+
+        List<ActivityRollup> result = new ArrayList<>();
+        if (server != null) {
+            RollupSeries s = series.get(server);
+            if (s != null) s.range(fromSec, toSec, result);
+            return result;
+        }
+        for (RollupSeries s : series.values()) {
+            s.range(fromSec, toSec, result);
+        }
+        result.sort(Comparator.comparing((ActivityRollup r) -> r.bucketStart).thenComparing(r -> r.server));
+        return result;
+    }
+
+    /**
+     * Columnar storage of one server's buckets, sorted by bucket start.
+     */
+    static class RollupSeries {
+        private final String server;
+        private long[] starts = new long[64];
+        private int[] counts = new int[64];
+        private int[] onlineCounts = new int[64];
+        private long[] playerSums = new long[64];
+        private int[] mins = new int[64];
+        private int[] maxs = new int[64];
+        private int size = 0;
+
+        RollupSeries(String server) {
+            this.server = server;
+        }
+
+        synchronized void add(long bucket, boolean online, int playerCount) {
+            int i = indexOf(bucket);
+            if (i < 0) {
+                i = insert(-i - 1, bucket);
+                mins[i] = playerCount;
+                maxs[i] = playerCount;
+            }
+            counts[i]++;
+            if (online) onlineCounts[i]++;
+            playerSums[i] += playerCount;
+            mins[i] = Math.min(mins[i], playerCount);
+            maxs[i] = Math.max(maxs[i], playerCount);
+        }
+
+        synchronized void put(long bucket, int count, int onlineCount, long playerSum, int min, int max) {
+            int i = indexOf(bucket);
+            if (i < 0) i = insert(-i - 1, bucket);
+            counts[i] = count;
+            onlineCounts[i] = onlineCount;
+            playerSums[i] = playerSum;
+            mins[i] = min;
+            maxs[i] = max;
+        }
+
+        synchronized void appendLines(long fromInclusive, long toExclusive, List<String> lines) {
+            for (int i = lowerBound(fromInclusive); i < size && starts[i] < toExclusive; i++) {
+                lines.add(server + SEPARATOR + starts[i] + SEPARATOR + counts[i] + SEPARATOR + onlineCounts[i]
+                        + SEPARATOR + playerSums[i] + SEPARATOR + mins[i] + SEPARATOR + maxs[i]);
+            }
+        }
+
+        synchronized void range(long fromInclusive, long toInclusive, List<ActivityRollup> result) {
+            for (int i = lowerBound(fromInclusive); i < size && starts[i] <= toInclusive; i++) {
+                ActivityRollup r = new ActivityRollup();
+                r.server = server;
+                r.bucketStart = ActivitySeriesStore.fromEpochSecond(starts[i]);
+                r.sampleCount = counts[i];
+                r.uptimeRatio = counts[i] > 0 ? (double) onlineCounts[i] / counts[i] : 0;
+                r.minPlayers = mins[i];
+                r.avgPlayers = counts[i] > 0 ? (double) playerSums[i] / counts[i] : 0;
+                r.maxPlayers = maxs[i];
+                result.add(r);
+            }
+        }
+
+        private int indexOf(long bucket) {
+            // New records almost always belong to the last bucket
+            if (size > 0 && starts[size - 1] == bucket) return size - 1;
+            if (size == 0 || starts[size - 1] < bucket) return -size - 1;
+            return Arrays.binarySearch(starts, 0, size, bucket);
+        }
+
+        private int lowerBound(long bucket) {
+            int i = Arrays.binarySearch(starts, 0, size, bucket);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        private int insert(int pos, long bucket) {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                onlineCounts = Arrays.copyOf(onlineCounts, capacity);
+                playerSums = Arrays.copyOf(playerSums, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+            }
+            int tail = size - pos;
+            System.arraycopy(starts, pos, starts, pos + 1, tail);
+            System.arraycopy(counts, pos, counts, pos + 1, tail);
+            System.arraycopy(onlineCounts, pos, onlineCounts, pos + 1, tail);
+            System.arraycopy(playerSums, pos, playerSums, pos + 1, tail);
+            System.arraycopy(mins, pos, mins, pos + 1, tail);
+            System.arraycopy(maxs, pos, maxs, pos + 1, tail);
+            starts[pos] = bucket;
+            counts[pos] = 0;
+            onlineCounts[pos] = 0;
+            playerSums[pos] = 0;
+            size++;
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Layout of the time-partitioned activity record files.
+ * <p>
+ * Every segment covers one day or one month of record creation time and is named
+ * {@code <baseName>-<yyyy-MM-dd>.<ext>} or {@code <baseName>-<yyyy-MM>.<ext>},
+ * where the extension depends on the {@link Format} of the segment files.
+ * A segment is only appended to while its period lasts, afterwards it is sealed and never modified again.
+ */
+public class ActivitySegments {
+    private static final DateTimeFormatter DAY_KEY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter MONTH_KEY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    public enum Period { DAY, MONTH }
+
+    public enum Format {
+        CSV("csv"),
+        BINARY("bin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    public record Segment(Path path, LocalDateTime start, LocalDateTime end) {
+        /**
+         * Whether any time within {@code [from, to]} falls into this segment. Null bounds are open.
+         */
+        public boolean overlaps(LocalDateTime from, LocalDateTime to) {
+            return (from == null || from.isBefore(end)) && (to == null || !to.isBefore(start));
+        }
+
+        public boolean isSealed(LocalDateTime now) {
+            return !now.isBefore(end);
+        }
+    }
+
+    private final Path directory;
+    private final String baseName;
+    private final Period period;
+    private final Format format;
+    private final Pattern fileNamePattern;
+
+    public ActivitySegments(Path directory, String baseName, Period period, Format format) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.period = period;
+        this.format = format;
+        this.fileNamePattern = Pattern.compile(Pattern.quote(baseName)
+                + "-(\\d{4}-\\d{2}(?:-\\d{2})?)\\." + Pattern.quote(format.getExtension()));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public String getBaseName() {
+        return baseName;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * The segment new records created at the given time are written to.
+     */
+    public Segment segmentFor(LocalDateTime time) {
+        if (period == Period.DAY) {
+            LocalDate day = time.toLocalDate();
+            return new Segment(directory.resolve(baseName + "-" + DAY_KEY_FORMAT.format(day) + "." + format.getExtension()),
+                    day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+        }
+        YearMonth month = YearMonth.from(time);
+        return new Segment(directory.resolve(baseName + "-" + MONTH_KEY_FORMAT.format(month) + "." + format.getExtension()),
+                month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+    }
+
+    /**
+     * All existing segments ordered by start time. Segments written with a different period setting are included.
+     */
+    public List<Segment> list() throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Segment segment = parse(file);
+                if (segment != null) segments.add(segment);
+            }
+        }
+        segments.sort(Comparator.comparing(Segment::start).thenComparing(Segment::end));
+        return segments;
+    }
+
+    public List<Segment> overlapping(LocalDateTime from, LocalDateTime to) throws IOException {
+        return list().stream().filter(s -> s.overlaps(from, to)).toList();
+    }
+
+    private Segment parse(Path file) {
+        Matcher m = fileNamePattern.matcher(file.getFileName().toString());
+        if (!m.matches()) return null;
+        String key = m.group(1);
+        try {
+            if (key.length() == 10) {
+                LocalDate day = LocalDate.parse(key, DAY_KEY_FORMAT);
+                return new Segment(file, day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+            }
+            YearMonth month = YearMonth.parse(key, MONTH_KEY_FORMAT);
+            return new Segment(file, month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * In-memory time series of activity records, indexed by the server's {@link ServerDictionary} id.
+ * <p>
+ * Each server's records are held in columnar primitive arrays sorted by record creation time,
+ * so time range lookups are a binary search instead of a scan.
+ * Timestamps are stored as epoch seconds of the {@link LocalDateTime} interpreted as UTC. Fractions of a second are
+ * dropped, the storage service truncates records to whole seconds before writing them so the segments agree.
+ * Records without creation time sort first and match every time range, as with the file formats.
+ * Reads never block and see each series as of a single point in time, even while records are appended.
+ */
+public class ActivitySeriesStore {
+    public static final long NO_TIME = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ServerDictionary dictionary;
+    // Indexed by server id, copied when a server is added
+    private volatile ServerSeries[] series = new ServerSeries[0];
+
+    public ActivitySeriesStore(ServerDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    // ---------------------
+    // Writing
+    // ---------------------
+
+    public void append(ActivityRecord record) {
+        if (record == null) return;
+        append(record.server,
+                toEpochSecond(record.recordCreationTime),
+                toEpochSecond(record.dataRetrievalTime),
+                record.online,
+                record.playerCount);
+    }
+
+    /**
+     * Appends a record given as raw columns, timestamps in epoch seconds or {@link #NO_TIME}.
+     */
+    public void append(String server, long creationTime, long retrievalTime, boolean online, int playerCount) {
+        if (server == null) return;
+        append(dictionary.idOf(server), creationTime, retrievalTime, online, playerCount);
+    }
+
+    /**
+     * Appends a record of the server with the given dictionary id.
+     */
+    public void append(int serverId, long creationTime, long retrievalTime, boolean online, int playerCount) {
+        if (serverId < 0) return;
+        ServerSeries[] s = series;
+        ServerSeries target = serverId < s.length ? s[serverId] : null;
+        if (target == null) target = addSeries(serverId);
+        target.append(creationTime, retrievalTime, online, playerCount);
+    }
+
+    private synchronized ServerSeries addSeries(int serverId) {
+        ServerSeries[] s = series;
+        if (serverId < s.length && s[serverId] != null) return s[serverId];
+        ServerSeries[] copy = Arrays.copyOf(s, Math.max(s.length, serverId + 1));
+        copy[serverId] = new ServerSeries(dictionary.nameOf(serverId));
+        series = copy;
+        return copy[serverId];
+    }
+
+    public void appendAll(Collection<ActivityRecord> records) {
+        for (ActivityRecord r : records) {
+            append(r);
+        }
+    }
+
+    /**
+     * Removes the records created before the given time. Records without creation time are kept.
+     *
+     * @return number of removed records
+     */
+    public long removeBefore(LocalDateTime time) {
+        long cutoff = toEpochSecond(time);
+        long removed = 0;
+        for (ServerSeries s : series) {
+            if (s != null) removed += s.removeBefore(cutoff);
+        }
+        return removed;
+    }
+
+    // ---------------------
+    // Reading
+    // ---------------------
+
+    public long getCount() {
+        long count = 0;
+        for (ServerSeries s : series) {
+            if (s != null) count += s.size();
+        }
+        return count;
+    }
+
+    /**
+     * Names of all servers with at least one record, sorted.
+     */
+    public SortedSet<String> getServers() {
+        SortedSet<String> servers = new TreeSet<>();
+        for (ServerSeries s : series) {
+            if (s != null) servers.add(s.server);
+        }
+        return servers;
+    }
+
+    /**
+     * Visits the records of the server whose creation time lies within {@code [from, to]} in creation time order,
+     * until the visitor returns {@code false}. Records appended while visiting are not included.
+     */
+    public void forEach(LocalDateTime from, LocalDateTime to, String server, Predicate<ActivityRecord> visitor) {
+        ServerSeries s = seriesOf(server);
+        if (s == null) return;
+        s.forEach(from != null ? toEpochSecond(from) : Long.MIN_VALUE, to != null ? toEpochSecond(to) : Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Number and creation time span of the server's records within {@code [from, to]}, answered by binary search.
+     */
+    public Range range(LocalDateTime from, LocalDateTime to, String server) {
+        ServerSeries s = seriesOf(server);
+        if (s == null) return new Range(0, null, null);
+        return s.rangeOf(from != null ? toEpochSecond(from) : Long.MIN_VALUE, to != null ? toEpochSecond(to) : Long.MAX_VALUE);
+    }
+
+    public record Range(int count, LocalDateTime first, LocalDateTime last) {}
+
+    public ActivityRecord getLast(String server) {
+        ServerSeries s = seriesOf(server);
+        return s != null ? s.last() : null;
+    }
+
+    /**
+     * Returns all records of the given server (or all servers if {@code server} is null)
+     * whose creation time lies within {@code [from, to]}, ordered by creation time.
+     */
+    public List<ActivityRecord> query(LocalDateTime from, LocalDateTime to, String server) {
+        long fromSec = from != null ? toEpochSecond(from) : Long.MIN_VALUE;
+        long toSec = to != null ? toEpochSecond(to) : Long.MAX_VALUE;
+
+        if (server != null) {
+            ServerSeries s = seriesOf(server);
+            return s != null ? s.range(fromSec, toSec) : new ArrayList<>();
+        }
+
+        List<List<ActivityRecord>> perServer = new ArrayList<>();
+        for (ServerSeries s : series) {
+            if (s == null) continue;
+            List<ActivityRecord> part = s.range(fromSec, toSec);
+            if (!part.isEmpty()) perServer.add(part);
+        }
+        return mergeByCreationTime(perServer);
+    }
+
+    /**
+     * k-way merge of lists that are each sorted by record creation time.
+     */
+    private static List<ActivityRecord> mergeByCreationTime(List<List<ActivityRecord>> sortedLists) {
+        if (sortedLists.isEmpty()) return new ArrayList<>();
+        if (sortedLists.size() == 1) return sortedLists.getFirst();
+
+        int total = 0;
+        for (List<ActivityRecord> l : sortedLists) total += l.size();
+        List<ActivityRecord> result = new ArrayList<>(total);
+
+        // Queue entries are {list index, position in list}
+        PriorityQueue<int[]> queue = new PriorityQueue<>(sortedLists.size(), (a, b) -> compareCreationTime(
+                sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1])));
+        for (int i = 0; i < sortedLists.size(); i++) {
+            queue.add(new int[]{i, 0});
+        }
+        while (!queue.isEmpty()) {
+            int[] head = queue.poll();
+            List<ActivityRecord> list = sortedLists.get(head[0]);
+            result.add(list.get(head[1]));
+            if (++head[1] < list.size()) queue.add(head);
+        }
+        return result;
+    }
+
+    private static int compareCreationTime(ActivityRecord a, ActivityRecord b) {
+        return Long.compare(toEpochSecond(a.recordCreationTime), toEpochSecond(b.recordCreationTime));
+    }
+
+    // ---------------------
+    // Helpers
+    // ---------------------
+
+    private ServerSeries seriesOf(String server) {
+        int id = dictionary.lookup(server);
+        ServerSeries[] s = series;
+        return id >= 0 && id < s.length ? s[id] : null;
+    }
+
+    static long toEpochSecond(LocalDateTime ldt) {
+        return ldt != null ? ldt.toEpochSecond(ZoneOffset.UTC) : NO_TIME;
+    }
+
+    static LocalDateTime fromEpochSecond(long epochSecond) {
+        return epochSecond != NO_TIME ? LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC) : null;
+    }
+
+    /**
+     * Columnar, append-mostly storage of one server's records, sorted by creation time.
+     * <p>
+     * Readers work on the {@link Columns} instance published last and never lock. Appends write behind the published
+     * size and then publish a new instance, out-of-order inserts copy the arrays first, so a published instance
+     * never changes. Appends are serialized among each other.
+     */
+    static class ServerSeries {
+        private final String server;
+        private volatile Columns columns = new Columns(new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY],
+                new int[INITIAL_CAPACITY], new byte[INITIAL_CAPACITY], 0);
+
+        ServerSeries(String server) {
+            this.server = server;
+        }
+
+        int size() {
+            return columns.size();
+        }
+
+        synchronized void append(long creationTime, long retrievalTime, boolean isOnline, int playerCount) {
+            Columns c = columns;
+            int size = c.size();
+            int capacity = c.creationTimes().length;
+            int newCapacity = size < capacity ? capacity : capacity * 2;
+
+            // Records almost always arrive in order, only fall back to an insert if they don't
+            if (size > 0 && c.creationTimes()[size - 1] > creationTime) {
+                int pos = c.upperBound(creationTime);
+                Columns inserted = new Columns(new long[newCapacity], new long[newCapacity], new int[newCapacity], new byte[newCapacity], size + 1);
+                c.copyTo(0, inserted, 0, pos);
+                inserted.set(pos, creationTime, retrievalTime, isOnline, playerCount);
+                c.copyTo(pos, inserted, pos + 1, size - pos);
+                columns = inserted;
+                return;
+            }
+
+            Columns target = newCapacity == capacity ? c : new Columns(
+                    Arrays.copyOf(c.creationTimes(), newCapacity), Arrays.copyOf(c.retrievalTimes(), newCapacity),
+                    Arrays.copyOf(c.playerCounts(), newCapacity), Arrays.copyOf(c.online(), newCapacity), size);
+            // Behind the published size, so invisible to readers until published below
+            target.set(size, creationTime, retrievalTime, isOnline, playerCount);
+            columns = new Columns(target.creationTimes(), target.retrievalTimes(), target.playerCounts(), target.online(), size + 1);
+        }
+
+        synchronized int removeBefore(long cutoff) {
+            Columns c = columns;
+            // Records without creation time sort first
+            int keptHead = c.upperBound(NO_TIME);
+            int start = Math.max(keptHead, c.lowerBound(cutoff));
+            int removed = start - keptHead;
+            if (removed == 0) return 0;
+            int size = c.size() - removed;
+            int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) << 1);
+            Columns kept = new Columns(new long[capacity], new long[capacity], new int[capacity], new byte[capacity], size);
+            c.copyTo(0, kept, 0, keptHead);
+            c.copyTo(start, kept, keptHead, c.size() - start);
+            columns = kept;
+            return removed;
+        }
+
+        void forEach(long fromSec, long toSec, Predicate<ActivityRecord> visitor) {
+            Columns c = columns;
+            int head = c.upperBound(NO_TIME);
+            for (int i = 0; i < head; i++) {
+                if (!visitor.test(c.materialize(server, i))) return;
+            }
+            int end = c.upperBound(toSec);
+            for (int i = c.lowerBound(fromSec, head); i < end; i++) {
+                if (!visitor.test(c.materialize(server, i))) return;
+            }
+        }
+
+        Range rangeOf(long fromSec, long toSec) {
+            Columns c = columns;
+            int head = c.upperBound(NO_TIME);
+            int start = c.lowerBound(fromSec, head);
+            int end = c.upperBound(toSec);
+            int count = head + Math.max(0, end - start);
+            if (count == 0) return new Range(0, null, null);
+            int last = end > start ? end - 1 : head - 1;
+            return new Range(count, fromEpochSecond(c.creationTimes()[head > 0 ? 0 : start]), fromEpochSecond(c.creationTimes()[last]));
+        }
+
+        ActivityRecord last() {
+            Columns c = columns;
+            return c.size() > 0 ? c.materialize(server, c.size() - 1) : null;
+        }
+
+        List<ActivityRecord> range(long fromSec, long toSec) {
+            Columns c = columns;
+            int head = c.upperBound(NO_TIME);
+            int start = c.lowerBound(fromSec, head);
+            int end = c.upperBound(toSec);
+            List<ActivityRecord> result = new ArrayList<>(head + Math.max(0, end - start));
+            for (int i = 0; i < head; i++) {
+                result.add(c.materialize(server, i));
+            }
+            for (int i = start; i < end; i++) {
+                result.add(c.materialize(server, i));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A published state of a {@link ServerSeries}, only the first {@code size} entries of the arrays are valid.
+     */
+    private record Columns(long[] creationTimes, long[] retrievalTimes, int[] playerCounts, byte[] online, int size) {
+
+        void set(int i, long creationTime, long retrievalTime, boolean isOnline, int playerCount) {
+            creationTimes[i] = creationTime;
+            retrievalTimes[i] = retrievalTime;
+            playerCounts[i] = playerCount;
+            online[i] = (byte) (isOnline ? 1 : 0);
+        }
+
+        void copyTo(int from, Columns target, int to, int length) {
+            System.arraycopy(creationTimes, from, target.creationTimes, to, length);
+            System.arraycopy(retrievalTimes, from, target.retrievalTimes, to, length);
+            System.arraycopy(playerCounts, from, target.playerCounts, to, length);
+            System.arraycopy(online, from, target.online, to, length);
+        }
+
+        /**
+         * Index of the first record with a creation time {@code >= time}.
+         */
+        int lowerBound(long time) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (creationTimes[mid] < time) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * Index of the first record at or after {@code min} with a creation time {@code >= time}.
+         */
+        int lowerBound(long time, int min) {
+            return Math.max(min, lowerBound(time));
+        }
+
+        /**
+         * Index of the first record with a creation time {@code > time}.
+         */
+        int upperBound(long time) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (creationTimes[mid] <= time) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        ActivityRecord materialize(String server, int i) {
+            ActivityRecord ar = new ActivityRecord();
+            ar.recordCreationTime = fromEpochSecond(creationTimes[i]);
+            ar.dataRetrievalTime = fromEpochSecond(retrievalTimes[i]);
+            ar.online = online[i] != 0;
+            ar.server = server;
+            ar.playerCount = playerCounts[i];
+            return ar;
+        }
+    }
+}
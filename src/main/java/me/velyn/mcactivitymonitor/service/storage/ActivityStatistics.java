@@ -0,0 +1,257 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Counters over the stored activity records, maintained per segment and updated with every append.
+ * <p>
+ * The counters are persisted as a snapshot that holds for every segment its size at the time of the snapshot,
+ * so on startup only segments that changed since then have to be read again:
+ * <pre>
+ * segment;&lt;fileName&gt;;&lt;size&gt;
+ * server;&lt;server&gt;;&lt;count&gt;;&lt;firstCreation&gt;;&lt;lastCreation&gt;
+ * days;&lt;epochDay&gt;,&lt;epochDay&gt;,...
+ * </pre>
+ * The {@code server} and {@code days} lines belong to the preceding {@code segment} line.
+ * Times are epoch seconds, days are the epoch days of the data retrieval time.
+ */
+public class ActivityStatistics {
+    private static final char SEPARATOR = ';';
+
+    /**
+     * Record count and creation time span of one server, times in epoch seconds or {@link ActivitySeriesStore#NO_TIME}.
+     */
+    public record ServerStatistics(String server, long count, long firstCreationTime, long lastCreationTime) {
+        ServerStatistics merge(ServerStatistics other) {
+            return new ServerStatistics(server, count + other.count,
+                    minTime(firstCreationTime, other.firstCreationTime), Math.max(lastCreationTime, other.lastCreationTime));
+        }
+
+        private static long minTime(long a, long b) {
+            if (a == ActivitySeriesStore.NO_TIME) return b;
+            if (b == ActivitySeriesStore.NO_TIME) return a;
+            return Math.min(a, b);
+        }
+    }
+
+    private static class SegmentStatistics {
+        long size = 0;
+        final Map<String, ServerStatistics> servers = new HashMap<>();
+        final Set<Long> days = new HashSet<>();
+    }
+
+    private final Path snapshotPath;
+    private final Map<String, SegmentStatistics> segments = new HashMap<>();
+    private final Map<String, ServerStatistics> totalsByServer = new HashMap<>();
+    // Number of segments each day occurs in
+    private final Map<Long, Integer> dayReferences = new HashMap<>();
+    private long totalCount = 0;
+    private long totalSize = 0;
+
+    private ActivityStatistics(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    public static ActivityStatistics load(Path snapshotPath) throws IOException {
+        ActivityStatistics statistics = new ActivityStatistics(snapshotPath);
+        if (!Files.exists(snapshotPath)) return statistics;
+        try (BufferedReader reader = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8)) {
+            SegmentStatistics current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(String.valueOf(SEPARATOR), -1);
+                switch (parts[0]) {
+                    case "segment" -> {
+                        current = new SegmentStatistics();
+                        current.size = Long.parseLong(parts[2]);
+                        statistics.segments.put(parts[1], current);
+                    }
+                    case "server" -> {
+                        if (current == null) continue;
+                        current.servers.put(parts[1], new ServerStatistics(parts[1],
+                                Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4])));
+                    }
+                    case "days" -> {
+                        if (current == null || parts[1].isEmpty()) continue;
+                        for (String day : parts[1].split(",")) {
+                            current.days.add(Long.parseLong(day));
+                        }
+                    }
+                    default -> {}
+                }
+            }
+        }
+        statistics.recomputeTotals();
+        return statistics;
+    }
+
+    // ---------------------
+    // Maintenance
+    // ---------------------
+
+    /**
+     * Whether the counters of the segment are known and the segment still has the size they were taken at.
+     */
+    public synchronized boolean isUpToDate(Path segment, long size) {
+        SegmentStatistics s = segments.get(segment.getFileName().toString());
+        return s != null && s.size == size;
+    }
+
+    /**
+     * Drops the counters of all segments not in the given list.
+     */
+    public synchronized void retainSegments(Collection<Path> existing) {
+        Set<String> names = new HashSet<>();
+        for (Path p : existing) names.add(p.getFileName().toString());
+        if (segments.keySet().retainAll(names)) {
+            recomputeTotals();
+        }
+    }
+
+    /**
+     * Drops the counters of the segment, so they can be collected again by reading it.
+     */
+    public synchronized void resetSegment(Path segment) {
+        if (segments.remove(segment.getFileName().toString()) != null) {
+            recomputeTotals();
+        }
+    }
+
+    /**
+     * Counts a record stored in the segment.
+     */
+    public void add(Path segment, ActivityRecord record) {
+        add(segment, record.server,
+                ActivitySeriesStore.toEpochSecond(record.recordCreationTime), ActivitySeriesStore.toEpochSecond(record.dataRetrievalTime));
+    }
+
+    /**
+     * Counts a record stored in the segment, given as raw columns.
+     */
+    public synchronized void add(Path segment, String server, long creationTime, long retrievalTime) {
+        if (server == null) return;
+        SegmentStatistics s = segments.computeIfAbsent(segment.getFileName().toString(), k -> new SegmentStatistics());
+        s.servers.merge(server, new ServerStatistics(server, 1, creationTime, creationTime), ServerStatistics::merge);
+        totalsByServer.merge(server, new ServerStatistics(server, 1, creationTime, creationTime), ServerStatistics::merge);
+        totalCount++;
+        if (retrievalTime != ActivitySeriesStore.NO_TIME && s.days.add(Math.floorDiv(retrievalTime, 86_400L))) {
+            dayReferences.merge(Math.floorDiv(retrievalTime, 86_400L), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Sets the size of the segment after records were appended.
+     *
+     * @return {@code true} if the segment was not known before
+     */
+    public synchronized boolean setSize(Path segment, long size) {
+        String name = segment.getFileName().toString();
+        boolean created = !segments.containsKey(name);
+        SegmentStatistics s = segments.computeIfAbsent(name, k -> new SegmentStatistics());
+        totalSize += size - s.size;
+        s.size = size;
+        return created;
+    }
+
+    /**
+     * Replaces the snapshot file with the current counters.
+     */
+    public synchronized void save() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, SegmentStatistics> entry : new TreeMap<>(segments).entrySet()) {
+            SegmentStatistics s = entry.getValue();
+            lines.add("segment" + SEPARATOR + entry.getKey() + SEPARATOR + s.size);
+            for (ServerStatistics ss : s.servers.values()) {
+                lines.add("server" + SEPARATOR + ss.server() + SEPARATOR + ss.count()
+                        + SEPARATOR + ss.firstCreationTime() + SEPARATOR + ss.lastCreationTime());
+            }
+            StringJoiner days = new StringJoiner(",");
+            for (long day : new TreeSet<>(s.days)) days.add(String.valueOf(day));
+            lines.add("days" + SEPARATOR + days);
+        }
+        Path parent = snapshotPath.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------------------
+    // Reading
+    // ---------------------
+
+    public synchronized long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Number of records counted in the segment.
+     */
+    public synchronized long getCount(Path segment) {
+        SegmentStatistics s = segments.get(segment.getFileName().toString());
+        if (s == null) return 0;
+        long count = 0;
+        for (ServerStatistics ss : s.servers.values()) count += ss.count();
+        return count;
+    }
+
+    /**
+     * Earliest record creation time counted in the segment, {@link ActivitySeriesStore#NO_TIME} if unknown.
+     */
+    public synchronized long getFirstCreationTime(Path segment) {
+        SegmentStatistics s = segments.get(segment.getFileName().toString());
+        if (s == null) return ActivitySeriesStore.NO_TIME;
+        long first = ActivitySeriesStore.NO_TIME;
+        for (ServerStatistics ss : s.servers.values()) first = ServerStatistics.minTime(first, ss.firstCreationTime());
+        return first;
+    }
+
+    public synchronized long getDistinctDaysCount() {
+        return dayReferences.size();
+    }
+
+    /**
+     * Summed size of all segments in bytes.
+     */
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    /**
+     * Counters of every server with at least one record, sorted by server name.
+     */
+    public synchronized List<ServerStatistics> getServerStatistics() {
+        return new TreeMap<>(totalsByServer).values().stream().toList();
+    }
+
+    private void recomputeTotals() {
+        totalsByServer.clear();
+        dayReferences.clear();
+        totalCount = 0;
+        totalSize = 0;
+        for (SegmentStatistics s : segments.values()) {
+            totalSize += s.size;
+            for (ServerStatistics ss : s.servers.values()) {
+                totalsByServer.merge(ss.server(), ss, ServerStatistics::merge);
+                totalCount += ss.count();
+            }
+            for (long day : s.days) {
+                dayReferences.merge(day, 1, Integer::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse index from hourly time buckets to byte offsets in a CSV activity segment.
+ * <p>
+ * An entry is added whenever a line starts a bucket later than any bucket seen before in the file,
+ * so every line before an entry's offset belongs to an earlier bucket. The index is stored next to
+ * the segment as {@code <segment>.idx} with one {@code bucket;offset} line per entry.
+ */
+public class ActivityTimeIndex {
+    public static final long BUCKET_SECONDS = 3600;
+    private static final char SEPARATOR = ';';
+
+    private final Path indexPath;
+    private long[] buckets = new long[64];
+    private long[] offsets = new long[64];
+    private int size = 0;
+    private final List<String> pendingLines = new ArrayList<>();
+
+    private ActivityTimeIndex(Path indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    public static Path indexPathOf(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".idx");
+    }
+
+    /**
+     * Loads the index of the segment, rebuilding it if it is missing or older than the segment.
+     */
+    public static ActivityTimeIndex loadOrRebuild(Path segment) throws IOException {
+        Path indexPath = indexPathOf(segment);
+        if (Files.exists(indexPath) && Files.exists(segment)
+                && Files.getLastModifiedTime(indexPath).compareTo(Files.getLastModifiedTime(segment)) >= 0) {
+            ActivityTimeIndex index = new ActivityTimeIndex(indexPath);
+            for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+                int sep = line.indexOf(SEPARATOR);
+                if (sep <= 0) continue;
+                index.add(Long.parseLong(line.substring(0, sep)), Long.parseLong(line.substring(sep + 1)));
+            }
+            return index;
+        }
+        return rebuild(segment);
+    }
+
+    /**
+     * Builds the index by scanning the segment and replaces the index file.
+     */
+    public static ActivityTimeIndex rebuild(Path segment) throws IOException {
+        ActivityTimeIndex index = build(segment, segment);
+        index.save();
+        return index;
+    }
+
+    /**
+     * Builds the index of {@code segment} by scanning {@code source}, a copy that is about to replace the segment.
+     * Nothing is written until {@link #save()}.
+     */
+    public static ActivityTimeIndex build(Path source, Path segment) throws IOException {
+        ActivityTimeIndex index = new ActivityTimeIndex(indexPathOf(segment));
+        if (Files.exists(source)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(source), 64 * 1024)) {
+                long offset = 0;
+                long lineStart = 0;
+                byte[] firstField = new byte[64];
+                int firstFieldLength = 0;
+                boolean inFirstField = true;
+                int b;
+                while ((b = in.read()) != -1) {
+                    offset++;
+                    if (b == '\n') {
+                        index.recordLine(lineStart, firstField, firstFieldLength);
+                        firstFieldLength = 0;
+                        inFirstField = true;
+                        lineStart = offset;
+                    } else if (inFirstField) {
+                        if (b == SEPARATOR) inFirstField = false;
+                        else if (firstFieldLength < firstField.length) firstField[firstFieldLength++] = (byte) b;
+                    }
+                }
+                if (offset > lineStart) {
+                    index.recordLine(lineStart, firstField, firstFieldLength);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Replaces the index file with all entries of the index.
+     */
+    public synchronized void save() throws IOException {
+        Files.deleteIfExists(indexPath);
+        flush();
+    }
+
+    private void recordLine(long lineStart, byte[] creationTime, int length) {
+        long epochSecond = ActivityCsvParser.parseEpochSecond(creationTime, 0, length);
+        // Otherwise the header line or a record without creation time
+        if (epochSecond != ActivitySeriesStore.NO_TIME) {
+            recordAppend(lineStart, epochSecond);
+        }
+    }
+
+    /**
+     * Registers a line that was appended to the segment at the given byte offset.
+     * New entries are persisted with the next {@link #flush()}.
+     */
+    public synchronized void recordAppend(long offset, long creationEpochSecond) {
+        long bucket = Math.floorDiv(creationEpochSecond, BUCKET_SECONDS);
+        if (size > 0 && bucket <= buckets[size - 1]) return;
+        add(bucket, offset);
+        pendingLines.add(bucket + String.valueOf(SEPARATOR) + offset);
+    }
+
+    public synchronized void flush() throws IOException {
+        if (pendingLines.isEmpty() && Files.exists(indexPath)) {
+            // Still touch the file, so it is not considered stale compared to the segment
+            Files.setLastModifiedTime(indexPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return;
+        }
+        Files.write(indexPath, pendingLines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        pendingLines.clear();
+    }
+
+    /**
+     * Byte offset from which all lines with a creation time {@code >= fromEpochSecond} are contained.
+     */
+    public synchronized long startOffset(long fromEpochSecond) {
+        long bucket = Math.floorDiv(fromEpochSecond, BUCKET_SECONDS);
+        int i = Arrays.binarySearch(buckets, 0, size, bucket);
+        if (i < 0) i = -i - 2; // last entry with a smaller bucket
+        return i >= 0 ? offsets[i] : 0;
+    }
+
+    /**
+     * Byte offset after which no line with a creation time {@code <= toEpochSecond} is expected, or {@code -1} for the end of the file.
+     * One extra bucket is kept as slack for local clock changes.
+     */
+    public synchronized long endOffset(long toEpochSecond) {
+        long bucket = Math.floorDiv(toEpochSecond, BUCKET_SECONDS) + 1;
+        int i = Arrays.binarySearch(buckets, 0, size, bucket);
+        i = i < 0 ? -i - 1 : i + 1; // first entry with a bigger bucket
+        return i < size ? offsets[i] : -1;
+    }
+
+    /**
+     * Opens the byte range {@code [start, end)} of the segment, {@code end = -1} meaning the end of the file.
+     */
+    public static InputStream openRange(Path segment, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ);
+        channel.position(start);
+        InputStream in = Channels.newInputStream(channel);
+        if (end < 0) return in;
+        return new FilterInputStream(in) {
+            private long remaining = end - start;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int n = super.read(buf, off, (int) Math.min(len, remaining));
+                if (n > 0) remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    private void add(long bucket, long offset) {
+        if (size == buckets.length) {
+            buckets = Arrays.copyOf(buckets, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        buckets[size] = bucket;
+        offsets[size] = offset;
+        size++;
+    }
+}
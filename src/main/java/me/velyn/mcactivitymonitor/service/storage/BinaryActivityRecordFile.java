@@ -0,0 +1,184 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fixed-width binary encoding of activity records.
+ * <p>
+ * Every record takes {@value #RECORD_SIZE} bytes: server id (int), record creation time (long, epoch seconds),
+ * data retrieval time (long, epoch seconds), online (byte) and player count (int).
+ * Files are read through {@link MappedByteBuffer}s of at most {@value #WINDOW_ROWS} records each, so scanning does
+ * not allocate per row and files are not limited to the 2 GB a single mapping can address.
+ */
+public final class BinaryActivityRecordFile {
+    public static final int RECORD_SIZE = 4 + 8 + 8 + 1 + 4;
+
+    private static final int OFFSET_SERVER_ID = 0;
+    private static final int OFFSET_CREATION_TIME = 4;
+    private static final int OFFSET_RETRIEVAL_TIME = 12;
+    private static final int OFFSET_ONLINE = 20;
+    private static final int OFFSET_PLAYER_COUNT = 21;
+
+    static final int WINDOW_ROWS = 1 << 20;
+
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit(int serverId, long creationTime, long retrievalTime, boolean online, int playerCount);
+    }
+
+    @FunctionalInterface
+    public interface ReverseRowVisitor {
+        /**
+         * @return whether to continue with the previous row
+         */
+        boolean visit(int serverId, long creationTime, long retrievalTime, boolean online, int playerCount);
+    }
+
+    private BinaryActivityRecordFile() {}
+
+    /**
+     * Encodes the records into a buffer ready to be appended to a binary segment.
+     */
+    public static ByteBuffer encode(List<ActivityRecord> records, ToIntFunction<String> serverIds) {
+        ByteBuffer buffer = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+        for (ActivityRecord r : records) {
+            putRow(buffer, serverIds.applyAsInt(r.server), ActivitySeriesStore.toEpochSecond(r.recordCreationTime),
+                    ActivitySeriesStore.toEpochSecond(r.dataRetrievalTime), r.online, r.playerCount);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the rows of the source created at or after {@code fromSec} to a new file, rows without creation time
+     * included. The target is forced to the storage device before this returns.
+     *
+     * @param length number of bytes from the start of the source to read, {@code -1} for the whole file
+     * @return number of rows written
+     */
+    public static long copyFrom(Path source, long length, long fromSec, Path target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096 * RECORD_SIZE);
+        long[] written = {0};
+        IOException[] failure = {null};
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            scan(source, length, -1, fromSec, Long.MAX_VALUE, (id, rct, drt, onl, plc) -> {
+                if (failure[0] != null) return;
+                try {
+                    if (!buffer.hasRemaining()) writeFully(out, buffer);
+                    putRow(buffer, id, rct, drt, onl, plc);
+                    written[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            writeFully(out, buffer);
+            out.force(true);
+        }
+        return written[0];
+    }
+
+    private static void putRow(ByteBuffer buffer, int serverId, long creationTime, long retrievalTime, boolean online, int playerCount) {
+        buffer.putInt(serverId);
+        buffer.putLong(creationTime);
+        buffer.putLong(retrievalTime);
+        buffer.put((byte) (online ? 1 : 0));
+        buffer.putInt(playerCount);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Visits all records of the file matching the server id ({@code -1} for all servers)
+     * and whose creation time lies within {@code [fromSec, toSec]}, in file order.
+     *
+     * @param length number of bytes from the start of the file to read, {@code -1} for the whole file
+     * @return number of rows scanned
+     */
+    public static long scan(Path path, long length, int serverId, long fromSec, long toSec, RowVisitor visitor) throws IOException {
+        if (!Files.exists(path)) return 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long rows = readableRows(channel, length);
+            for (long start = 0; start < rows; start += WINDOW_ROWS) {
+                MappedByteBuffer buffer = map(channel, start, Math.min(WINDOW_ROWS, rows - start));
+                int windowRows = buffer.capacity() / RECORD_SIZE;
+                for (int i = 0; i < windowRows; i++) {
+                    int base = i * RECORD_SIZE;
+                    int id = buffer.getInt(base + OFFSET_SERVER_ID);
+                    if (serverId != -1 && id != serverId) continue;
+                    long creationTime = buffer.getLong(base + OFFSET_CREATION_TIME);
+                    if (creationTime != ActivitySeriesStore.NO_TIME && (creationTime < fromSec || creationTime > toSec)) continue;
+                    visitor.visit(id, creationTime,
+                            buffer.getLong(base + OFFSET_RETRIEVAL_TIME),
+                            buffer.get(base + OFFSET_ONLINE) != 0,
+                            buffer.getInt(base + OFFSET_PLAYER_COUNT));
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Visits the records of the file from the last to the first until the visitor returns {@code false}.
+     *
+     * @param length number of bytes from the start of the file to read, {@code -1} for the whole file
+     * @return {@code false} if the visitor stopped the scan
+     */
+    public static boolean scanReverse(Path path, long length, ReverseRowVisitor visitor) throws IOException {
+        if (!Files.exists(path)) return true;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long end = readableRows(channel, length); end > 0; end -= WINDOW_ROWS) {
+                long start = Math.max(0, end - WINDOW_ROWS);
+                MappedByteBuffer buffer = map(channel, start, end - start);
+                for (int i = buffer.capacity() / RECORD_SIZE - 1; i >= 0; i--) {
+                    int base = i * RECORD_SIZE;
+                    boolean proceed = visitor.visit(
+                            buffer.getInt(base + OFFSET_SERVER_ID),
+                            buffer.getLong(base + OFFSET_CREATION_TIME),
+                            buffer.getLong(base + OFFSET_RETRIEVAL_TIME),
+                            buffer.get(base + OFFSET_ONLINE) != 0,
+                            buffer.getInt(base + OFFSET_PLAYER_COUNT));
+                    if (!proceed) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static ActivityRecord toActivityRecord(String server, long creationTime, long retrievalTime, boolean online, int playerCount) {
+        ActivityRecord ar = new ActivityRecord();
+        ar.recordCreationTime = ActivitySeriesStore.fromEpochSecond(creationTime);
+        ar.dataRetrievalTime = ActivitySeriesStore.fromEpochSecond(retrievalTime);
+        ar.online = online;
+        ar.server = server;
+        ar.playerCount = playerCount;
+        return ar;
+    }
+
+    private static long readableRows(FileChannel channel, long length) throws IOException {
+        // Only whole records, a concurrently appended record may be incomplete
+        long available = length >= 0 ? Math.min(length, channel.size()) : channel.size();
+        return available / RECORD_SIZE;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long firstRow, long rows) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, firstRow * RECORD_SIZE, rows * RECORD_SIZE);
+    }
+}
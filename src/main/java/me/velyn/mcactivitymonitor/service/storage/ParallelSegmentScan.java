@@ -0,0 +1,166 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads line-based segment files in parallel.
+ * <p>
+ * Byte ranges of the segments are split into chunks that start and end on line boundaries, so every chunk
+ * can be parsed on its own. The chunks are read on a pool and their results are handed back in chunk order,
+ * which is file order, so the outcome is the same as reading the segments one after another.
+ */
+public final class ParallelSegmentScan {
+    private static final int BOUNDARY_SEARCH_BUFFER_SIZE = 4096;
+    private static final long MIN_CHUNK_SIZE = 64 * 1024;
+
+    public static final Comparator<ActivityRecord> BY_CREATION_TIME =
+            Comparator.comparing(ar -> ar.recordCreationTime, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    /**
+     * The byte range {@code [start, end)} of a segment.
+     */
+    public record Chunk(Path path, long start, long end) {}
+
+    @FunctionalInterface
+    public interface ChunkReader<R> {
+        R read(Chunk chunk) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ResultConsumer<R> {
+        void accept(R result) throws IOException;
+    }
+
+    private ParallelSegmentScan() {}
+
+    /**
+     * Splits the byte range {@code [start, end)} of the file into chunks of about {@code chunkSize} bytes that begin at a line start.
+     * {@code start} has to be a line start itself.
+     */
+    public static List<Chunk> split(Path path, long start, long end, long chunkSize) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        if (end <= start) return chunks;
+        chunkSize = Math.max(chunkSize, MIN_CHUNK_SIZE);
+        long pos = start;
+        if (end - start > chunkSize) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SEARCH_BUFFER_SIZE);
+                while (end - pos > chunkSize) {
+                    long boundary = nextLineStart(channel, pos + chunkSize, end, buffer);
+                    if (boundary >= end) break;
+                    chunks.add(new Chunk(path, pos, boundary));
+                    pos = boundary;
+                }
+            }
+        }
+        chunks.add(new Chunk(path, pos, end));
+        return chunks;
+    }
+
+    /**
+     * Reads the chunks on the pool with at most {@code window} chunks in flight and hands the results
+     * to the consumer in chunk order, on the calling thread.
+     */
+    public static <R> void forEachOrdered(ExecutorService pool, List<Chunk> chunks, int window,
+                                          ChunkReader<R> reader, ResultConsumer<R> consumer) throws IOException {
+        if (chunks.size() == 1) {
+            consumer.accept(reader.read(chunks.getFirst()));
+            return;
+        }
+        Deque<Future<R>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < chunks.size() || !inFlight.isEmpty()) {
+                while (next < chunks.size() && inFlight.size() < Math.max(1, window)) {
+                    Chunk chunk = chunks.get(next++);
+                    inFlight.add(pool.submit(() -> reader.read(chunk)));
+                }
+                consumer.accept(await(inFlight.poll()));
+            }
+        } finally {
+            for (Future<R> f : inFlight) f.cancel(true);
+        }
+    }
+
+    /**
+     * Reads all chunks on the pool and returns the results in chunk order.
+     */
+    public static <R> List<R> readAll(ExecutorService pool, List<Chunk> chunks, ChunkReader<R> reader) throws IOException {
+        List<R> results = new ArrayList<>(chunks.size());
+        forEachOrdered(pool, chunks, chunks.size(), reader, results::add);
+        return results;
+    }
+
+    /**
+     * k-way merge of lists that are each sorted {@link #BY_CREATION_TIME}.
+     */
+    public static List<ActivityRecord> mergeByCreationTime(List<List<ActivityRecord>> sortedLists) {
+        List<List<ActivityRecord>> lists = sortedLists.stream().filter(l -> !l.isEmpty()).toList();
+        if (lists.isEmpty()) return new ArrayList<>();
+        if (lists.size() == 1) return new ArrayList<>(lists.getFirst());
+
+        int total = 0;
+        for (List<ActivityRecord> l : lists) total += l.size();
+        List<ActivityRecord> result = new ArrayList<>(total);
+
+        // Queue entries are {list index, position in list}
+        PriorityQueue<int[]> queue = new PriorityQueue<>(lists.size(), (a, b) -> {
+            int c = BY_CREATION_TIME.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+            // Equal times keep the order of the lists
+            return c != 0 ? c : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < lists.size(); i++) {
+            queue.add(new int[]{i, 0});
+        }
+        while (!queue.isEmpty()) {
+            int[] head = queue.poll();
+            List<ActivityRecord> list = lists.get(head[0]);
+            result.add(list.get(head[1]));
+            if (++head[1] < list.size()) queue.add(head);
+        }
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long end, ByteBuffer buffer) throws IOException {
+        // 'from' is a line start if the byte before it ends a line
+        long pos = from - 1;
+        while (pos < end) {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            if (n <= 0) return end;
+            for (int i = 0; i < n && pos + i < end; i++) {
+                if (buffer.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return end;
+    }
+
+    private static <R> R await(Future<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading segments");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof UncheckedIOException uio) throw uio.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a file from the last to the first, fetching the file in fixed-size blocks through a {@link FileChannel}.
+ */
+public class ReverseLineReader implements Closeable {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final long length;
+    private long position;
+    // Bytes of the file before 'position' that have been read but not yet returned as lines
+    private byte[] pending = new byte[0];
+    private int pendingLength = 0;
+    private boolean exhausted = false;
+
+    public ReverseLineReader(Path path) throws IOException {
+        this(path, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ReverseLineReader(Path path, int blockSize) throws IOException {
+        this(path, blockSize, -1);
+    }
+
+    /**
+     * @param length number of bytes from the start of the file to read, {@code -1} for the whole file
+     */
+    public ReverseLineReader(Path path, int blockSize, long length) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.blockSize = blockSize;
+        this.length = length >= 0 ? Math.min(length, channel.size()) : channel.size();
+        this.position = this.length;
+    }
+
+    /**
+     * Number of bytes fetched from the file so far.
+     */
+    public long getBytesRead() {
+        return length - position;
+    }
+
+    @FunctionalInterface
+    public interface LineVisitor {
+        /**
+         * Receives a line as the bytes within {@code [offset, end)} of the buffer, without its line terminator.
+         * The buffer is only valid during the call.
+         */
+        void visit(byte[] buffer, int offset, int end);
+    }
+
+    /**
+     * Returns the previous line without its line terminator, or {@code null} once the start of the file was reached.
+     */
+    public String readLine() throws IOException {
+        String[] line = {null};
+        return readLine((buffer, offset, end) -> line[0] = new String(buffer, offset, end - offset, StandardCharsets.UTF_8))
+                ? line[0] : null;
+    }
+
+    /**
+     * Hands the previous line to the visitor without decoding it.
+     *
+     * @return {@code false} once the start of the file was reached
+     */
+    public boolean readLine(LineVisitor visitor) throws IOException {
+        while (!exhausted) {
+            int nl = pendingLength - 1;
+            while (nl >= 0 && pending[nl] != '\n') nl--;
+
+            if (nl >= 0 || position == 0) {
+                int end = pendingLength;
+                if (end > nl + 1 && pending[end - 1] == '\r') end--;
+                visitor.visit(pending, nl + 1, end);
+                if (nl >= 0) {
+                    pendingLength = nl;
+                } else {
+                    pendingLength = 0;
+                    exhausted = true;
+                }
+                return true;
+            }
+            readPreviousBlock();
+        }
+        return false;
+    }
+
+    private void readPreviousBlock() throws IOException {
+        int n = (int) Math.min(blockSize, position);
+        byte[] merged = pending.length >= n + pendingLength ? pending : new byte[n + pendingLength];
+        // Move the incomplete line behind the block that is about to be read
+        System.arraycopy(pending, 0, merged, n, pendingLength);
+        ByteBuffer block = ByteBuffer.wrap(merged, 0, n);
+        long readPosition = position - n;
+        while (block.hasRemaining()) {
+            int read = channel.read(block, readPosition + block.position());
+            if (read < 0) throw new IOException("Unexpected end of file");
+        }
+        position = readPosition;
+        pending = merged;
+        pendingLength = n + pendingLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
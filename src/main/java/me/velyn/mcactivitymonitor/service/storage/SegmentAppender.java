@@ -0,0 +1,105 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends to activity segments through a channel that stays open between appends.
+ * <p>
+ * Records almost always go to the latest segment, so only one channel is kept open; appending to another segment
+ * closes it and opens the other one.
+ * <p>
+ * Readers must not read past {@link #readableSize(Path)}, which only moves once an append is complete,
+ * so they never see a partially written record. It is answered without locking.
+ */
+public class SegmentAppender implements Closeable {
+    private record Committed(Path path, long size) {}
+
+    private Path path = null;
+    private FileChannel channel = null;
+    private volatile Committed committed = null;
+
+    /**
+     * Number of bytes of the segment that hold completely written records, {@code 0} if it does not exist.
+     */
+    public long readableSize(Path segment) {
+        Committed c = committed;
+        if (c != null && c.path().equals(segment)) return c.size();
+        long size = segment.toFile().length();
+        // An append that started since has published the size it started at before writing
+        c = committed;
+        return c != null && c.path().equals(segment) ? Math.min(size, c.size()) : size;
+    }
+
+    /**
+     * Current size of the segment, which is the offset the next append starts at.
+     */
+    public synchronized long size(Path segment) throws IOException {
+        return channelOf(segment).size();
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer to the segment.
+     *
+     * @return the offset the data was written at
+     */
+    public synchronized long append(Path segment, ByteBuffer data) throws IOException {
+        FileChannel ch = channelOf(segment);
+        long offset = ch.size();
+        try {
+            while (data.hasRemaining()) {
+                ch.write(data);
+            }
+        } catch (IOException e) {
+            // Reopen on the next append, the channel may be unusable. Readers keep stopping before the failed append.
+            closeChannel();
+            throw e;
+        }
+        committed = new Committed(segment, ch.size());
+        return offset;
+    }
+
+    /**
+     * Forces the appended data of the open segment to the storage device.
+     */
+    public synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the open segment and forgets its readable size, so a segment that is replaced after closing is read up to
+     * its own end. The next append publishes the size again before it writes.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        committed = null;
+        closeChannel();
+    }
+
+    private void closeChannel() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        path = null;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    private FileChannel channelOf(Path segment) throws IOException {
+        if (channel != null && channel.isOpen() && segment.equals(path)) {
+            return channel;
+        }
+        closeChannel();
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        path = segment;
+        // Published before the first append, so readers stop at the current end while the append is in progress
+        committed = new Committed(segment, channel.size());
+        return channel;
+    }
+}
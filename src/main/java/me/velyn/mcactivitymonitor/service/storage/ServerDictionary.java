@@ -0,0 +1,120 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns compact int ids to server hostnames.
+ * <p>
+ * Ids are never reused and are persisted in an append-only file with one {@code id;hostname} line per server.
+ * The dictionary holds one instance of every hostname, which {@link #nameOf(int)} and {@link #intern(String)} hand out,
+ * so records of the same server share it. Lookups never lock, assigning a new id is serialized.
+ */
+public class ServerDictionary {
+    private static final char SEPARATOR = ';';
+
+    private final Path path;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Indexed by id, replaced when it grows
+    private volatile String[] names = new String[16];
+    private volatile int nextId = 0;
+
+    private ServerDictionary(Path path) {
+        this.path = path;
+    }
+
+    public static ServerDictionary load(Path path) throws IOException {
+        ServerDictionary dictionary = new ServerDictionary(path);
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                int sep = line.indexOf(SEPARATOR);
+                if (sep <= 0) continue;
+                int id = Integer.parseInt(line.substring(0, sep));
+                dictionary.put(id, line.substring(sep + 1));
+            }
+        }
+        return dictionary;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the id of the server, assigning and persisting a new one if the server is not known yet.
+     */
+    public int idOf(String server) {
+        String key = server != null ? server : "";
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        return assign(key);
+    }
+
+    private synchronized int assign(String key) {
+        Integer id = ids.get(key);
+        if (id != null) return id;
+
+        int newId = nextId;
+        try {
+            Path parent = path.getParent();
+            if (parent != null) Files.createDirectories(parent);
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(newId + String.valueOf(SEPARATOR) + key);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to persist server id for " + key, e);
+        }
+        put(newId, key);
+        return newId;
+    }
+
+    /**
+     * Returns the id of the server, or {@code -1} if it has never been assigned one.
+     */
+    public int lookup(String server) {
+        if (server == null) return -1;
+        Integer id = ids.get(server);
+        return id != null ? id : -1;
+    }
+
+    public String nameOf(int id) {
+        String[] n = names;
+        return id >= 0 && id < n.length ? n[id] : null;
+    }
+
+    /**
+     * Returns the dictionary's instance of the hostname if it has an id, otherwise the hostname itself.
+     */
+    public String intern(String server) {
+        int id = lookup(server);
+        return id >= 0 ? nameOf(id) : server;
+    }
+
+    /**
+     * Number of ids assigned, ids are {@code 0} up to this exclusive.
+     */
+    public int size() {
+        return nextId;
+    }
+
+    private synchronized void put(int id, String server) {
+        String[] n = names;
+        if (id >= n.length) {
+            n = Arrays.copyOf(n, Math.max(id + 1, n.length * 2));
+        }
+        n[id] = server;
+        // The name is visible before its id is, so a looked up id always resolves
+        names = n;
+        nextId = Math.max(nextId, id + 1);
+        ids.put(server, id);
+    }
+}
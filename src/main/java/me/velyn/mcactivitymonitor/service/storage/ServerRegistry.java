@@ -0,0 +1,319 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import io.quarkus.logging.Log;
+import me.velyn.mcactivitymonitor.data.ServerRecord;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The tracked servers, held in memory and persisted as a snapshot file plus an append-only journal.
+ * <p>
+ * The snapshot keeps the {@code server;lastFetchTime} CSV format of the servers file. Every change is appended to
+ * {@code <servers file>.journal} as {@code put;<server>;<lastFetchTime>} or {@code del;<server>} before it is visible,
+ * so a crash loses nothing. Server names in the journal have {@code %}, {@code ;}, CR and LF percent-encoded, so
+ * every entry stays on one line even for names the snapshot had to quote. Once the journal grows past a multiple of
+ * the number of servers it is compacted into a new snapshot.
+ * <p>
+ * Reads never lock: {@link #getServers()} returns an immutable set that is rebuilt only after a change, and entries
+ * are replaced instead of modified, so a {@link ServerRecord} obtained from the registry never changes.
+ */
+public class ServerRegistry {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final char SEPARATOR = ';';
+    private static final String PUT = "put";
+    private static final String DELETE = "del";
+    private static final int MIN_COMPACTION_ENTRIES = 1024;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final Map<String, ServerRecord> servers = new ConcurrentHashMap<>();
+    // Incremented after every change, a snapshot taken at an older version is stale
+    private volatile long version = 0;
+    private volatile Snapshot snapshot = null;
+    private final Object journalLock = new Object();
+    private BufferedWriter journal = null;
+    private int journalEntries = 0;
+
+    private record Snapshot(long version, Set<ServerRecord> servers) {}
+
+    private ServerRegistry(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        this.journalPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".journal");
+    }
+
+    /**
+     * Loads the snapshot, replays the journal and compacts both into a new snapshot.
+     */
+    public static ServerRegistry load(Path snapshotPath) throws IOException {
+        ServerRegistry registry = new ServerRegistry(snapshotPath);
+        if (Files.exists(snapshotPath)) {
+            try (Reader reader = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8);
+                 CSVParser parser = CSVParser.parse(reader, csvFormat(true))) {
+                for (CSVRecord rec : parser) {
+                    registry.apply(rec.get("server"), parseTime(rec.get("lastFetchTime")));
+                }
+            }
+        }
+        if (Files.exists(registry.journalPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(registry.journalPath, StandardCharsets.UTF_8)) {
+                int lineNumber = 0;
+                String line = reader.readLine();
+                while (line != null) {
+                    lineNumber++;
+                    String next = reader.readLine();
+                    if (!registry.replay(line)) {
+                        // Only the last entry can have been cut off by a crash, anything before it is corruption
+                        if (next != null) {
+                            throw new IOException("Invalid entry at line " + lineNumber + " of " + registry.journalPath + ": " + line);
+                        }
+                        Log.warnf("Skipping truncated last entry of %s: %s", registry.journalPath, line);
+                    }
+                    line = next;
+                }
+            }
+            registry.compact();
+        }
+        return registry;
+    }
+
+    /**
+     * @return {@code false} if the line is no complete journal entry
+     */
+    private boolean replay(String line) {
+        String[] parts = line.split(String.valueOf(SEPARATOR), -1);
+        if (parts.length == 3 && PUT.equals(parts[0])) {
+            LocalDateTime lastFetchTime;
+            try {
+                lastFetchTime = parseTime(parts[2]);
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+            String server = unescape(parts[1]);
+            if (server == null) return false;
+            apply(server, lastFetchTime);
+            return true;
+        } else if (parts.length == 2 && DELETE.equals(parts[0])) {
+            String server = unescape(parts[1]);
+            if (server == null) return false;
+            servers.remove(server);
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the name can be tracked: not blank, without surrounding or inner whitespace, control characters or the
+     * {@code ;} separator of the servers file.
+     */
+    public static boolean isValidName(String server) {
+        if (server == null || server.isEmpty()) return false;
+        for (int i = 0; i < server.length(); i++) {
+            char c = server.charAt(i);
+            if (c == SEPARATOR || Character.isWhitespace(c) || Character.isISOControl(c)) return false;
+        }
+        return true;
+    }
+
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * All tracked servers. The returned set does not change with the registry.
+     */
+    public Set<ServerRecord> getServers() {
+        long v = version;
+        Snapshot s = snapshot;
+        if (s != null && s.version() == v) return s.servers();
+        Set<ServerRecord> copy = Set.copyOf(servers.values());
+        snapshot = new Snapshot(v, copy);
+        return copy;
+    }
+
+    public ServerRecord get(String server) {
+        return servers.get(server);
+    }
+
+    public boolean contains(String server) {
+        return servers.containsKey(server);
+    }
+
+    public int size() {
+        return servers.size();
+    }
+
+    /**
+     * Adds the server or replaces its entry.
+     */
+    public void put(String server, LocalDateTime lastFetchTime) throws IOException {
+        synchronized (journalLock) {
+            appendToJournal(PUT + SEPARATOR + escape(server) + SEPARATOR + formatTime(lastFetchTime));
+            apply(server, lastFetchTime);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Sets the last fetch time of a tracked server.
+     *
+     * @return {@code false} if the server is not tracked
+     */
+    public boolean updateLastFetchTime(String server, LocalDateTime lastFetchTime) throws IOException {
+        synchronized (journalLock) {
+            if (!servers.containsKey(server)) return false;
+            appendToJournal(PUT + SEPARATOR + escape(server) + SEPARATOR + formatTime(lastFetchTime));
+            apply(server, lastFetchTime);
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the server was not tracked
+     */
+    public boolean remove(String server) throws IOException {
+        synchronized (journalLock) {
+            if (!servers.containsKey(server)) return false;
+            appendToJournal(DELETE + SEPARATOR + escape(server));
+            servers.remove(server);
+            version++;
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Writes all servers into a new snapshot and empties the journal.
+     */
+    public void compact() throws IOException {
+        synchronized (journalLock) {
+            Path parent = snapshotPath.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+                 CSVPrinter printer = new CSVPrinter(writer, csvFormat(false))) {
+                for (ServerRecord sr : new TreeMap<>(servers).values()) {
+                    printer.printRecord(sr.server, formatTime(sr.lastFetchTime));
+                }
+            }
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // A crash before the journal is emptied only replays changes that are already in the snapshot
+            closeJournal();
+            Files.deleteIfExists(journalPath);
+            journalEntries = 0;
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (journalLock) {
+            closeJournal();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (journalEntries > Math.max(MIN_COMPACTION_ENTRIES, servers.size() * 4)) {
+            compact();
+        }
+    }
+
+    private void apply(String server, LocalDateTime lastFetchTime) {
+        if (server == null || server.isEmpty()) return;
+        ServerRecord sr = new ServerRecord();
+        sr.server = server;
+        sr.lastFetchTime = lastFetchTime;
+        servers.put(server, sr);
+        version++;
+    }
+
+    private void appendToJournal(String line) throws IOException {
+        if (journal == null) {
+            Path parent = journalPath.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        journal.write(line);
+        journal.newLine();
+        journal.flush();
+        journalEntries++;
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            BufferedWriter w = journal;
+            journal = null;
+            w.close();
+        }
+    }
+
+    private static String escape(String server) {
+        StringBuilder sb = null;
+        for (int i = 0; i < server.length(); i++) {
+            char c = server.charAt(i);
+            if (c == '%' || c == SEPARATOR || c == '\r' || c == '\n') {
+                if (sb == null) sb = new StringBuilder(server.length() + 8).append(server, 0, i);
+                sb.append('%').append(String.format("%02X", (int) c));
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb != null ? sb.toString() : server;
+    }
+
+    /**
+     * @return {@code null} if the name contains an invalid escape sequence
+     */
+    private static String unescape(String server) {
+        int escape = server.indexOf('%');
+        if (escape < 0) return server;
+        StringBuilder sb = new StringBuilder(server.length()).append(server, 0, escape);
+        for (int i = escape; i < server.length(); i++) {
+            char c = server.charAt(i);
+            if (c != '%') {
+                sb.append(c);
+                continue;
+            }
+            if (i + 2 >= server.length()) return null;
+            int high = Character.digit(server.charAt(i + 1), 16);
+            int low = Character.digit(server.charAt(i + 2), 16);
+            if (high < 0 || low < 0) return null;
+            sb.append((char) (high * 16 + low));
+            i += 2;
+        }
+        return sb.toString();
+    }
+
+    private static String formatTime(LocalDateTime time) {
+        return time != null ? TIME_FORMAT.format(time) : "";
+    }
+
+    private static LocalDateTime parseTime(String value) {
+        return (value == null || value.isEmpty()) ? LocalDateTime.MIN : LocalDateTime.parse(value, TIME_FORMAT);
+    }
+
+    private static CSVFormat csvFormat(boolean skipHeader) {
+        return CSVFormat.DEFAULT.builder()
+                .setHeader("server", "lastFetchTime")
+                .setSkipHeaderRecord(skipHeader)
+                .setDelimiter(SEPARATOR)
+                .get();
+    }
+}
@@ -4,9 +4,11 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.data.ActivityRollup;
 import me.velyn.mcactivitymonitor.data.ServerRecord;
 import me.velyn.mcactivitymonitor.service.DataStorageService;
 import me.velyn.mcactivitymonitor.service.DataStorageService.ActivityRecordFilter;
+import me.velyn.mcactivitymonitor.service.storage.ActivityRollupStore;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -44,10 +46,36 @@ public class QuteService {
         return dataStorageService.getActivityRecords(filter);
     }
 
+    /**
+     * Returns the hourly averages of the last days from the pre-aggregated rollups, in the shape {@link #accumulateByHour} produces.
+     */
+    public List<ActivityRecord> getHourlyActivities(String server, int lastXDays) {
+        ActivityRecordFilter filter = new ActivityRecordFilter(null, null, server);
+        if (lastXDays >= 0) {
+            filter = new ActivityRecordFilter(LocalDate.now().minusDays(lastXDays).atStartOfDay(), null, server);
+        }
+        List<ActivityRecord> result = new ArrayList<>();
+        for (ActivityRollup rollup : dataStorageService.getActivityRollups(ActivityRollupStore.Resolution.HOUR, filter)) {
+            ActivityRecord acc = new ActivityRecord();
+            acc.recordCreationTime = rollup.bucketStart;
+            acc.dataRetrievalTime = rollup.bucketStart;
+            acc.online = rollup.uptimeRatio > 0.5;
+            acc.server = rollup.server;
+            acc.playerCount = (int) Math.round(rollup.avgPlayers);
+            result.add(acc);
+        }
+        return result;
+    }
+
     public ActivityRecord getLastRecordedActivity(String server) {
         return dataStorageService.getLastActivityRecord(server);
     }
 
+    public Map<String, ActivityRecord> getLastRecordedActivities(Set<ServerRecord> servers) {
+        Set<String> names = servers.stream().map(sr -> sr.server).collect(Collectors.toSet());
+        return dataStorageService.getLastActivityRecords(names);
+    }
+
     public Map<LocalDate, List<ActivityRecord>> groupByDate(List<ActivityRecord> records) {
         return records.stream()
                 .collect(Collectors.groupingBy(
@@ -0,0 +1,24 @@
+package me.velyn.mcactivitymonitor.ui;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.qute.TemplateInstance;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Times the rendering of every template instance, tagged with the template id.
+ */
+@ApplicationScoped
+public class TemplateRenderMetrics implements TemplateInstance.Initializer {
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Override
+    public void accept(TemplateInstance instance) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String template = instance.getTemplate().getId();
+        instance.onRendered(() -> sample.stop(meterRegistry.timer("qute.render", "template", template)));
+    }
+}
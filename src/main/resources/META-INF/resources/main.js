@@ -2,6 +2,8 @@ let activityTableServer = null;
 let refreshCountdownInterval = 30;
 let refreshCountdown = refreshCountdownInterval;
 let refreshCountdownPaused = false;
+let liveUpdatesConnected = false;
+let activityTableReloadTimeout = null;
 
 document.addEventListener("DOMContentLoaded", function() {
     const input = document.getElementById('newServerAddress');
@@ -29,14 +31,112 @@ document.addEventListener("DOMContentLoaded", function() {
     }
 
     setInterval(countdownStep, 1000);
+    connectLiveUpdates();
 });
 
+/**
+ * Subscribes to the pushed changes, which replace the periodic refresh while connected.
+ * The browser reconnects on its own, the tables are reloaded then to catch up on missed changes.
+ */
+function connectLiveUpdates() {
+    if (!window.EventSource) {
+        return;
+    }
+    const events = new EventSource('/rest/events');
+    events.onopen = () => {
+        const reconnected = liveUpdatesConnected === null;
+        liveUpdatesConnected = true;
+        document.getElementById('refreshCountdownDisplay').innerText = 'live';
+        if (reconnected) {
+            reloadServerTable();
+            scheduleActivityTableReload();
+        }
+    };
+    events.onerror = () => {
+        if (liveUpdatesConnected) {
+            // Marks the connection as lost, so the tables are reloaded once it is back
+            liveUpdatesConnected = null;
+            refreshCountdown = refreshCountdownInterval;
+        }
+    };
+    events.addEventListener('activities', event => {
+        if (refreshCountdownPaused) {
+            return;
+        }
+        const records = JSON.parse(event.data);
+        records.forEach(updateServerRow);
+        if (records.some(r => activityTableServer == null || r.server === activityTableServer)) {
+            scheduleActivityTableReload();
+        }
+    });
+    events.addEventListener('server', event => {
+        if (refreshCountdownPaused) {
+            return;
+        }
+        const change = JSON.parse(event.data);
+        if (change.change === 'FETCHED') {
+            const cell = findServerRow(change.server)?.querySelector('.col-last-check');
+            if (cell) {
+                cell.textContent = formatDateTime(change.lastFetchTime);
+            }
+        } else if (change.change === 'REMOVED') {
+            findServerRow(change.server)?.remove();
+        } else {
+            // A new row, rendered by the server like all others
+            reloadServerTable();
+        }
+    });
+}
+
+function findServerRow(server) {
+    return document.querySelector(`#serverTableWrapper tr[data-server="${CSS.escape(server)}"]`);
+}
+
+function updateServerRow(record) {
+    const row = findServerRow(record.server);
+    if (!row) {
+        return;
+    }
+    const online = row.querySelector('.col-online .badge');
+    if (online) {
+        online.className = record.online ? 'badge badge-success' : 'badge badge-danger';
+        online.title = record.online ? 'Online' : 'Offline';
+        online.textContent = record.online ? 'Online' : 'Offline';
+    }
+    const players = row.querySelector('.col-players .badge');
+    if (players) {
+        players.title = 'Current players';
+        players.textContent = '' + record.playerCount;
+    }
+}
+
+/**
+ * Reloads the visible activity table at most every few seconds, its rows are averages computed by the server.
+ */
+function scheduleActivityTableReload() {
+    const activitySection = document.getElementById('section-activity');
+    if (!activitySection || activitySection.classList.contains('hidden') || activityTableReloadTimeout) {
+        return;
+    }
+    activityTableReloadTimeout = setTimeout(() => {
+        activityTableReloadTimeout = null;
+        reloadServerActivityTable();
+    }, 5000);
+}
+
+function formatDateTime(isoDateTime) {
+    // Same format as the server renders, yyyy-MM-dd HH:mm
+    return isoDateTime ? isoDateTime.replace('T', ' ').substring(0, 16) : '';
+}
+
 function setRefreshInterval(interval) {
     const val = parseInt(interval, 10);
     if (!isNaN(val)) {
         refreshCountdownInterval = val;
         refreshCountdown = refreshCountdownInterval;
-        document.getElementById('refreshCountdownDisplay').innerText = '' + refreshCountdown;
+        if (!liveUpdatesConnected) {
+            document.getElementById('refreshCountdownDisplay').innerText = '' + refreshCountdown;
+        }
     }
 }
 
@@ -62,7 +162,7 @@ function showSection(name) {
 }
 
 function countdownStep() {
-    if (refreshCountdownPaused) {
+    if (refreshCountdownPaused || liveUpdatesConnected) {
         return;
     }
     refreshCountdown--;
@@ -87,6 +187,11 @@ function pauseOrResumeRefreshCountdown() {
     } else {
         btn.textContent = 'Pause';
         btn.setAttribute('aria-pressed', 'false');
+        if (liveUpdatesConnected) {
+            // Catch up on the changes ignored while paused
+            reloadServerTable();
+            scheduleActivityTableReload();
+        }
     }
 }
 
@@ -0,0 +1,269 @@
+package me.velyn.mcactivitymonitor.dataprovider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(10)
+class ServerListPingStatusProviderTest {
+
+    private ServerListPingStatusProvider provider;
+    private ServerSocket serverSocket;
+    private CompletableFuture<Handshake> handshake;
+
+    private record Handshake(int protocolVersion, String host, int port, int nextState) {}
+
+    @FunctionalInterface
+    private interface Responder {
+        void respond(OutputStream out) throws IOException, InterruptedException;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        provider = new ServerListPingStatusProvider();
+        provider.objectMapper = new ObjectMapper();
+        provider.connectTimeoutMillis = 1000;
+        provider.readTimeoutMillis = 500;
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        handshake = new CompletableFuture<>();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        serverSocket.close();
+    }
+
+    @Test
+    void readsPlayerCountFromStatusResponse() throws Exception {
+        serve(out -> out.write(statusResponse("{\"version\":{\"name\":\"1.21\",\"protocol\":767},"
+                + "\"players\":{\"max\":100,\"online\":42},\"description\":\"A Minecraft Server\"}")));
+
+        StatusProvider.Status status = provider.getStatus(address());
+
+        assertTrue(status.online());
+        assertEquals(42, status.playersOnline());
+        Handshake received = handshake.get(1, TimeUnit.SECONDS);
+        assertEquals(-1, received.protocolVersion());
+        assertEquals("127.0.0.1", received.host());
+        assertEquals(serverSocket.getLocalPort(), received.port());
+        assertEquals(1, received.nextState());
+    }
+
+    @Test
+    void readsStatusResponseArrivingInPieces() throws Exception {
+        // Larger than the initial read buffer, and sent a few bytes at a time
+        String motd = "x".repeat(20_000);
+        byte[] response = statusResponse("{\"players\":{\"max\":20,\"online\":3},\"description\":\"" + motd + "\"}");
+        serve(out -> {
+            for (int i = 0; i < response.length; i += 4096) {
+                out.write(response, i, Math.min(4096, response.length - i));
+                out.flush();
+                Thread.sleep(5);
+            }
+        });
+
+        StatusProvider.Status status = provider.getStatus(address());
+
+        assertTrue(status.online());
+        assertEquals(3, status.playersOnline());
+    }
+
+    @Test
+    void reportsServerThatRefusesConnectionAsOffline() throws Exception {
+        String address = address();
+        serverSocket.close();
+
+        StatusProvider.Status status = provider.getStatus(address);
+
+        assertFalse(status.online());
+        assertEquals(0, status.playersOnline());
+    }
+
+    @Test
+    void timesOutWhenServerDoesNotAnswer() throws Exception {
+        serve(out -> Thread.sleep(2000));
+
+        long start = System.nanoTime();
+        assertThrows(SocketTimeoutException.class, () -> provider.getStatus(address()));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis < 1500, "took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void timesOutWhenStatusResponseStaysIncomplete() throws Exception {
+        byte[] response = statusResponse("{\"players\":{\"max\":20,\"online\":3}}");
+        serve(out -> {
+            out.write(response, 0, response.length - 5);
+            out.flush();
+            Thread.sleep(2000);
+        });
+
+        assertThrows(SocketTimeoutException.class, () -> provider.getStatus(address()));
+    }
+
+    @Test
+    void rejectsConnectionClosedBeforeResponseWasComplete() throws Exception {
+        byte[] response = statusResponse("{\"players\":{\"max\":20,\"online\":3}}");
+        serve(out -> out.write(response, 0, response.length - 5));
+
+        IOException e = assertThrows(IOException.class, () -> provider.getStatus(address()));
+        assertFalse(e instanceof SocketTimeoutException);
+    }
+
+    @Test
+    void rejectsUnexpectedPacketId() throws Exception {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        writeVarInt(packet, 0x01);
+        packet.writeBytes(new byte[8]);
+        serve(out -> out.write(framed(packet.toByteArray())));
+
+        IOException e = assertThrows(IOException.class, () -> provider.getStatus(address()));
+        assertTrue(e.getMessage().contains("Unexpected packet"), e.getMessage());
+    }
+
+    @Test
+    void rejectsOverlongVarInt() throws Exception {
+        serve(out -> out.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01}));
+
+        IOException e = assertThrows(IOException.class, () -> provider.getStatus(address()));
+        assertTrue(e.getMessage().contains("VarInt too long"), e.getMessage());
+    }
+
+    @Test
+    void rejectsJsonLengthBeyondPacket() throws Exception {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        writeVarInt(packet, 0x00);
+        writeVarInt(packet, 1000);
+        packet.writeBytes("{}".getBytes(StandardCharsets.UTF_8));
+        serve(out -> out.write(framed(packet.toByteArray())));
+
+        IOException e = assertThrows(IOException.class, () -> provider.getStatus(address()));
+        assertTrue(e.getMessage().contains("Malformed"), e.getMessage());
+    }
+
+    @Test
+    void rejectsStatusWithoutPlayerCount() throws Exception {
+        serve(out -> out.write(statusResponse("{\"version\":{\"name\":\"1.21\",\"protocol\":767}}")));
+
+        assertThrows(IOException.class, () -> provider.getStatus(address()));
+    }
+
+    @Test
+    void selectsSrvRecordByPriorityThenWeight() {
+        ServerListPingStatusProvider.Target target = ServerListPingStatusProvider.selectSrv(List.of(
+                "20 100 25570 backup.example.net.",
+                "10 5 25566 low-weight.example.net.",
+                "10 50 25567 high-weight.example.net.",
+                "5 0 0 invalid-port.example.net.",
+                "broken"));
+
+        assertEquals(new ServerListPingStatusProvider.Target("high-weight.example.net", 25567), target);
+        assertNull(ServerListPingStatusProvider.selectSrv(List.of("broken", "1 1 99999 out-of-range.example.net.")));
+    }
+
+    @Test
+    void givesUpSrvLookupWhenDnsServerDoesNotAnswer() throws Exception {
+        provider.connectTimeoutMillis = 300;
+        try (DatagramSocket dns = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            provider.dnsProviderUrl = "dns://127.0.0.1:" + dns.getLocalPort();
+
+            long start = System.nanoTime();
+            ServerListPingStatusProvider.Target target = provider.resolve("play.example.net");
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(new ServerListPingStatusProvider.Target("play.example.net", 25565), target);
+            assertTrue(elapsedMillis >= 250 && elapsedMillis < 1500, "took " + elapsedMillis + " ms");
+        }
+    }
+
+    // ---------------------
+    // Fake server
+    // ---------------------
+
+    private String address() {
+        return "127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts one connection, reads the handshake and status request and lets the responder answer.
+     */
+    private void serve(Responder responder) {
+        Thread.ofPlatform().daemon().start(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                readHandshake(in);
+                int requestLength = readVarInt(in);
+                in.readNBytes(requestLength);
+                OutputStream out = socket.getOutputStream();
+                responder.respond(out);
+                out.flush();
+            } catch (IOException | InterruptedException e) {
+                handshake.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void readHandshake(DataInputStream in) throws IOException {
+        readVarInt(in);
+        assertEquals(0x00, readVarInt(in));
+        int protocolVersion = readVarInt(in);
+        String host = new String(in.readNBytes(readVarInt(in)), StandardCharsets.UTF_8);
+        int port = in.readUnsignedShort();
+        int nextState = readVarInt(in);
+        handshake.complete(new Handshake(protocolVersion, host, port, nextState));
+    }
+
+    private static byte[] statusResponse(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        writeVarInt(packet, 0x00);
+        writeVarInt(packet, bytes.length);
+        packet.writeBytes(bytes);
+        return framed(packet.toByteArray());
+    }
+
+    private static byte[] framed(byte[] packet) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, packet.length);
+        out.writeBytes(packet);
+        return out.toByteArray();
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new IOException("Connection closed inside a VarInt");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt too long");
+    }
+}
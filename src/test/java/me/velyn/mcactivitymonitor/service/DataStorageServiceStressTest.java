@@ -0,0 +1,453 @@
+package me.velyn.mcactivitymonitor.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import me.velyn.mcactivitymonitor.service.DataStorageService.ActivityRecordFilter;
+import me.velyn.mcactivitymonitor.service.DataStorageService.ActivityRecordVisitor;
+import me.velyn.mcactivitymonitor.service.storage.ActivitySegments;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads activity records through the storage service from several threads while others write them, with and without
+ * the in-memory store. Readers must only see well-formed rows without gaps, never see the data shrink, and keep
+ * going while a writer holds the write lock. Compaction must not change what readers see of the retained records.
+ */
+@Timeout(120)
+class DataStorageServiceStressTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 1, 1, 0, 0);
+    private static final int SERVERS = 3;
+    private static final int BATCHES_PER_SERVER = 300;
+    private static final int BATCH_SIZE = 10;
+    private static final int READERS = 4;
+    private static final long LOCK_HOLD_MILLIS = 300;
+
+    @TempDir
+    Path dir;
+
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean(true);
+    private final AtomicLong reads = new AtomicLong();
+
+    @Test
+    void readsFromMemoryStoreWhileWriting() throws Exception {
+        readWhileWriting(true);
+    }
+
+    @Test
+    void readsFromSegmentsWhileWriting() throws Exception {
+        readWhileWriting(false);
+    }
+
+    private void readWhileWriting(boolean memoryStoreEnabled) throws Exception {
+        DataStorageService service = open(memoryStoreEnabled);
+        try {
+            List<Thread> writers = new ArrayList<>();
+            for (int s = 0; s < SERVERS; s++) {
+                int server = s;
+                writers.add(start(() -> {
+                    for (int b = 0; b < BATCHES_PER_SERVER && writing.get(); b++) {
+                        List<ActivityRecord> batch = new ArrayList<>();
+                        for (int i = 0; i < BATCH_SIZE; i++) {
+                            batch.add(row(server, b * BATCH_SIZE + i));
+                        }
+                        service.writeActivityRecords(batch);
+                    }
+                }));
+            }
+
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                long seed = r;
+                readers.add(start(() -> read(service, new Random(seed))));
+            }
+            Thread holder = start(() -> {
+                Thread.sleep(50);
+                synchronized (service.activityWriteLock) {
+                    long count = service.getActivityRecordsCount();
+                    long readsBefore = reads.get();
+                    Thread.sleep(LOCK_HOLD_MILLIS);
+                    assertTrue(reads.get() > readsBefore, "no read finished while the write lock was held");
+                    assertEquals(count, service.getActivityRecordsCount(), "records were written while the write lock was held");
+                }
+            });
+
+            holder.join();
+            for (Thread t : writers) t.join();
+            writing.set(false);
+            for (Thread t : readers) t.join();
+            assertNoFailures();
+
+            assertEquals((long) SERVERS * BATCHES_PER_SERVER * BATCH_SIZE, service.getActivityRecordsCount());
+            for (int s = 0; s < SERVERS; s++) {
+                List<ActivityRecord> records = service.getActivityRecords(new ActivityRecordFilter(null, null, serverName(s)));
+                assertEquals(BATCHES_PER_SERVER * BATCH_SIZE, records.size());
+                assertSequence(s, records);
+            }
+        } finally {
+            service.onStop(null);
+        }
+    }
+
+    @Test
+    void readsCsvRangesWhileCompacting() throws Exception {
+        readRangesWhileCompacting(ActivitySegments.Format.CSV);
+    }
+
+    @Test
+    void readsBinaryRangesWhileCompacting() throws Exception {
+        readRangesWhileCompacting(ActivitySegments.Format.BINARY);
+    }
+
+    /**
+     * Records every ten minutes over the last 40 days in monthly segments, compacted to the last 10 days, so whole
+     * segments are deleted and the one the cutoff falls into is rewritten while readers read ranges of it.
+     */
+    private void readRangesWhileCompacting(ActivitySegments.Format format) throws Exception {
+        LocalDateTime base = LocalDate.now().minusDays(40).atStartOfDay();
+        LocalDateTime cutoff = LocalDate.now().minusDays(10).atStartOfDay();
+        int records = 40 * 24 * 6 - 6;
+        DataStorageService service = open(false, ActivitySegments.Period.MONTH, format);
+        service.activityRetentionDays = 10;
+        try {
+            writeEveryTenMinutes(service, base, records);
+
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                long seed = r;
+                readers.add(start(() -> readRanges(service, new Random(seed), base, cutoff, records)));
+            }
+            // Appends to the segment that may be rewritten while it is rewritten
+            Thread writer = start(() -> {
+                for (int i = records; writing.get(); i++) {
+                    service.writeActivityRecords(List.of(row(base, i % SERVERS, records * 10 + i)));
+                    Thread.sleep(1);
+                }
+            });
+            Thread.sleep(100);
+            DataStorageService.CompactionReport report = service.compactActivityRecords();
+            long readsAfterCompaction = reads.get() + READERS * 20L;
+            while (reads.get() < readsAfterCompaction && failures.isEmpty()) Thread.sleep(10);
+            writing.set(false);
+            writer.join();
+            for (Thread t : readers) t.join();
+            assertNoFailures();
+
+            assertNotNull(report, "compaction did not run");
+            assertTrue(report.segmentsDeleted() + report.segmentsRewritten() > 0, "nothing was compacted");
+            assertEquals(List.of(), service.getActivityRecords(new ActivityRecordFilter(null, cutoff.minusSeconds(1), null)),
+                    "records before the cutoff remained");
+        } finally {
+            service.onStop(null);
+        }
+    }
+
+    @Test
+    void compactionWaitsForRunningRangedRead() throws Exception {
+        LocalDateTime base = LocalDate.now().minusDays(40).atStartOfDay();
+        LocalDateTime cutoff = LocalDate.now().minusDays(10).atStartOfDay();
+        int records = 40 * 24 * 6 - 6;
+        int retainedFrom = (int) Duration.between(base, cutoff).toMinutes() / 10;
+        DataStorageService service = open(false, ActivitySegments.Period.MONTH, ActivitySegments.Format.CSV);
+        service.activityRetentionDays = 10;
+        // Small chunks, so most of the segment is still to be read when the export stalls
+        service.activityScanChunkSize = 4096;
+        service.activityScanParallelism = 2;
+        try {
+            writeEveryTenMinutes(service, base, records);
+
+            CountDownLatch exporting = new CountDownLatch(1);
+            StringWriter exported = new StringWriter();
+            Writer stallingWriter = new FilterWriter(exported) {
+                @Override
+                public void write(String str, int off, int len) throws IOException {
+                    // Stalls on the first record, after the header
+                    if (exporting.getCount() > 0 && exported.getBuffer().indexOf("\n") >= 0) {
+                        exporting.countDown();
+                        try {
+                            // Long enough for the compaction to finish, if it did not wait for the export
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    super.write(str, off, len);
+                }
+            };
+            Thread compaction = start(() -> {
+                exporting.await();
+                assertNotNull(service.compactActivityRecords(), "compaction did not run");
+            });
+            service.exportActivityRecordsCsv(new ActivityRecordFilter(cutoff, null, null), stallingWriter);
+            compaction.join();
+            assertNoFailures();
+
+            List<String> lines = exported.toString().lines().skip(1).toList();
+            assertEquals(SERVERS * (records - retainedFrom), lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                String[] fields = lines.get(i).split(";");
+                assertEquals(base.plusMinutes((retainedFrom + i / SERVERS) * 10L), LocalDateTime.parse(fields[0]),
+                        "line " + (i + 1) + " of the export");
+                assertEquals(serverName(i % SERVERS), fields[3]);
+            }
+        } finally {
+            service.onStop(null);
+        }
+    }
+
+    @Test
+    void readsWholeSecondsFromMemoryAndCsvSegments() throws Exception {
+        List<ActivityRecord> written = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ActivityRecord ar = row(0, i);
+            ar.recordCreationTime = ar.recordCreationTime.plusNanos(i * 100_000_001L);
+            ar.dataRetrievalTime = ar.dataRetrievalTime.plusNanos(999_999_999L - i);
+            written.add(ar);
+        }
+        DataStorageService service = open(true, ActivitySegments.Period.MONTH, ActivitySegments.Format.CSV);
+        List<ActivityRecord> fromMemory;
+        StringWriter exported = new StringWriter();
+        try {
+            service.writeActivityRecords(written);
+            fromMemory = service.getActivityRecords(new ActivityRecordFilter(null, null, serverName(0)));
+            service.exportActivityRecordsCsv(new ActivityRecordFilter(null, null, serverName(0)), exported);
+        } finally {
+            service.onStop(null);
+        }
+        service = open(false, ActivitySegments.Period.MONTH, ActivitySegments.Format.CSV);
+        List<ActivityRecord> fromSegments;
+        try {
+            fromSegments = service.getActivityRecords(new ActivityRecordFilter(null, null, serverName(0)));
+        } finally {
+            service.onStop(null);
+        }
+
+        assertEquals(10, fromMemory.size());
+        assertEquals(10, fromSegments.size());
+        List<String> lines = exported.toString().lines().skip(1).toList();
+        assertEquals(10, lines.size());
+        for (int i = 0; i < 10; i++) {
+            ActivityRecord expected = row(0, i);
+            for (ActivityRecord ar : List.of(fromMemory.get(i), fromSegments.get(i))) {
+                assertEquals(expected.recordCreationTime, ar.recordCreationTime);
+                assertEquals(expected.dataRetrievalTime, ar.dataRetrievalTime);
+            }
+            String[] fields = lines.get(i).split(";");
+            assertEquals(expected.recordCreationTime, LocalDateTime.parse(fields[0]));
+            assertEquals(expected.dataRetrievalTime, LocalDateTime.parse(fields[1]));
+        }
+    }
+
+    private void readRanges(DataStorageService service, Random random, LocalDateTime base, LocalDateTime cutoff, int records) {
+        int retainedFrom = (int) Duration.between(base, cutoff).toMinutes() / 10;
+        while (writing.get()) {
+            int s = random.nextInt(SERVERS);
+            // Within the retained records, which every read has to see completely
+            int first = retainedFrom + random.nextInt(records - retainedFrom);
+            int last = Math.min(records - 1, first + random.nextInt(500));
+            List<ActivityRecord> retained = service.getActivityRecords(new ActivityRecordFilter(
+                    base.plusMinutes(first * 10L), base.plusMinutes(last * 10L), serverName(s)));
+            assertEquals(last - first + 1, retained.size(), "records of " + serverName(s) + " missing");
+            for (int i = 0; i < retained.size(); i++) {
+                assertEquals(base.plusMinutes((first + i) * 10L), retained.get(i).recordCreationTime);
+                assertWellFormed(base, s, retained.get(i));
+            }
+
+            // Across the cutoff, where the records before it may or may not be gone yet
+            LocalDateTime from = base.plusMinutes(random.nextInt(retainedFrom) * 10L);
+            LocalDateTime to = cutoff.plusMinutes(random.nextInt(600));
+            for (ActivityRecord ar : service.getActivityRecords(new ActivityRecordFilter(from, to, null))) {
+                assertFalse(ar.recordCreationTime.isBefore(from) || ar.recordCreationTime.isAfter(to),
+                        "outside of the range: " + ar.recordCreationTime);
+                assertWellFormed(base, serverIndex(ar.server), ar);
+            }
+
+            ActivityRecord latest = service.getLastActivityRecord(serverName(s));
+            assertNotNull(latest, "no latest record of " + serverName(s));
+            assertWellFormed(base, s, latest);
+            reads.incrementAndGet();
+        }
+    }
+
+    private void read(DataStorageService service, Random random) throws IOException {
+        long lastCount = 0;
+        int[] lastSizes = new int[SERVERS];
+        while (writing.get()) {
+            long count = service.getActivityRecordsCount();
+            assertTrue(count >= lastCount, "count shrank from " + lastCount + " to " + count);
+            lastCount = count;
+
+            int s = random.nextInt(SERVERS);
+            List<ActivityRecord> records = service.getActivityRecords(new ActivityRecordFilter(null, null, serverName(s)));
+            assertTrue(records.size() >= lastSizes[s], "records of " + serverName(s) + " shrank");
+            assertSequence(s, records);
+            lastSizes[s] = records.size();
+
+            ActivityRecord last = service.getLastActivityRecord(serverName(s));
+            if (last != null) assertWellFormed(s, last);
+
+            // Streamed by server, exactly as many records as announced
+            long[] announced = {0};
+            List<ActivityRecord> visited = new ArrayList<>();
+            service.forEachActivityRecordByServer(new ActivityRecordFilter(null, null, serverName(s)), new ActivityRecordVisitor() {
+                @Override
+                public void beginServer(String server, long count, LocalDateTime first, LocalDateTime last) {
+                    assertEquals(serverName(s), server);
+                    announced[0] = count;
+                }
+
+                @Override
+                public boolean visit(ActivityRecord record) {
+                    visited.add(record);
+                    return true;
+                }
+            });
+            assertEquals(announced[0], visited.size(), "records of " + serverName(s) + " other than announced");
+            assertTrue(visited.size() >= lastSizes[s], "streamed records of " + serverName(s) + " shrank");
+            assertSequence(s, visited);
+
+            LocalDateTime from = BASE.plusMinutes(random.nextInt(BATCHES_PER_SERVER * BATCH_SIZE));
+            LocalDateTime to = from.plusMinutes(random.nextInt(600));
+            for (ActivityRecord ar : service.getActivityRecords(new ActivityRecordFilter(from, to, null))) {
+                assertFalse(ar.recordCreationTime.isBefore(from) || ar.recordCreationTime.isAfter(to),
+                        "outside of the range: " + ar.recordCreationTime);
+                assertWellFormed(serverIndex(ar.server), ar);
+            }
+            reads.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the first {@code records} records of every server ten minutes apart, in time order as the scheduler
+     * writes them.
+     */
+    private static void writeEveryTenMinutes(DataStorageService service, LocalDateTime base, int records) {
+        List<ActivityRecord> batch = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            for (int s = 0; s < SERVERS; s++) {
+                batch.add(row(base, s, i * 10));
+            }
+        }
+        service.writeActivityRecords(batch);
+    }
+
+    /**
+     * The records of a server have to be the first ones it wrote, in order and without gaps.
+     */
+    private static void assertSequence(int server, List<ActivityRecord> records) {
+        for (int i = 0; i < records.size(); i++) {
+            ActivityRecord ar = records.get(i);
+            assertEquals(BASE.plusMinutes(i), ar.recordCreationTime, "gap in the records of " + serverName(server));
+            assertWellFormed(server, ar);
+        }
+    }
+
+    private static void assertWellFormed(int server, ActivityRecord ar) {
+        assertWellFormed(BASE, server, ar);
+    }
+
+    private static void assertWellFormed(LocalDateTime base, int server, ActivityRecord ar) {
+        assertEquals(serverName(server), ar.server);
+        assertNotNull(ar.recordCreationTime, "record without creation time");
+        int minute = (int) Duration.between(base, ar.recordCreationTime).toMinutes();
+        ActivityRecord expected = row(base, server, minute);
+        assertEquals(expected.dataRetrievalTime, ar.dataRetrievalTime);
+        assertEquals(expected.online, ar.online);
+        assertEquals(expected.playerCount, ar.playerCount);
+    }
+
+    // ---------------------
+    // Helpers
+    // ---------------------
+
+    /**
+     * Opens the storage service on an empty directory without CDI, by default with binary segments of one day each.
+     */
+    private DataStorageService open(boolean memoryStoreEnabled) {
+        return open(memoryStoreEnabled, ActivitySegments.Period.DAY, ActivitySegments.Format.BINARY);
+    }
+
+    private DataStorageService open(boolean memoryStoreEnabled, ActivitySegments.Period period, ActivitySegments.Format format) {
+        DataStorageService service = new DataStorageService();
+        service.serversFilePath = dir.resolve("servers.csv").toString();
+        service.activityRecordsFilePath = dir.resolve("activity-records.csv").toString();
+        service.activityMemoryStoreEnabled = memoryStoreEnabled;
+        service.activitySegmentPeriod = period;
+        service.activityFormat = format;
+        service.activityScanChunkSize = 8 * 1024 * 1024;
+        service.meterRegistry = new SimpleMeterRegistry();
+        service.onStart(null);
+        return service;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private Thread start(Task task) {
+        return Thread.ofPlatform().start(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failures.add(t);
+                writing.set(false);
+            }
+        });
+    }
+
+    private void assertNoFailures() {
+        Throwable first = failures.peek();
+        if (first != null) {
+            AssertionError error = new AssertionError(failures.size() + " thread(s) failed", first);
+            failures.stream().skip(1).forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    private static String serverName(int server) {
+        return "play" + server + ".example.net";
+    }
+
+    private static int serverIndex(String server) {
+        return Integer.parseInt(server.substring(4, server.indexOf('.')));
+    }
+
+    /**
+     * The {@code minute}th record of the server, each column derived from the server and minute.
+     */
+    private static ActivityRecord row(int server, int minute) {
+        return row(BASE, server, minute);
+    }
+
+    private static ActivityRecord row(LocalDateTime base, int server, int minute) {
+        ActivityRecord ar = new ActivityRecord();
+        ar.server = serverName(server);
+        ar.recordCreationTime = base.plusMinutes(minute);
+        ar.dataRetrievalTime = ar.recordCreationTime.minusSeconds(1 + server);
+        ar.online = minute % 7 != 0;
+        ar.playerCount = ar.online ? minute % 500 + server : 0;
+        return ar;
+    }
+}
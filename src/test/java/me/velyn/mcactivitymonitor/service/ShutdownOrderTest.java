@@ -0,0 +1,40 @@
+package me.velyn.mcactivitymonitor.service;
+
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.event.Observes;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The scheduler has to stop submitting records before the writer drains its queue, and the writer has to be done
+ * before the storage closes the segments. Observers of the same event run in the order of their priority.
+ */
+class ShutdownOrderTest {
+
+    @Test
+    void stopsSchedulerThenWriterThenStorage() throws Exception {
+        int scheduler = shutdownPriority(SchedulerService.class);
+        int writer = shutdownPriority(ActivityRecordWriter.class);
+        int storage = shutdownPriority(DataStorageService.class);
+
+        assertEquals(SchedulerService.SHUTDOWN_PRIORITY, scheduler);
+        assertEquals(ActivityRecordWriter.SHUTDOWN_PRIORITY, writer);
+        assertEquals(DataStorageService.SHUTDOWN_PRIORITY, storage);
+        assertTrue(scheduler < writer, "scheduler stops after the writer");
+        assertTrue(writer < storage, "writer stops after the storage");
+    }
+
+    private static int shutdownPriority(Class<?> bean) throws NoSuchMethodException {
+        Method onStop = bean.getDeclaredMethod("onStop", ShutdownEvent.class);
+        Parameter event = onStop.getParameters()[0];
+        assertNotNull(event.getAnnotation(Observes.class), bean.getSimpleName() + ".onStop does not observe the event");
+        Priority priority = event.getAnnotation(Priority.class);
+        assertNotNull(priority, bean.getSimpleName() + ".onStop has no priority");
+        return priority.value();
+    }
+}
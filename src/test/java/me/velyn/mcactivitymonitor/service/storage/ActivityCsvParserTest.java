@@ -0,0 +1,229 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parses rows as the storage service prints them with a {@link CSVPrinter} and compares them with the records they
+ * were printed from.
+ */
+class ActivityCsvParserTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 1, 10, 12, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsPrintedRecords() throws IOException {
+        List<ActivityRecord> records = List.of(
+                record(BASE, BASE.minusSeconds(2), true, "play.example.net", 42),
+                record(BASE.plusMinutes(1), null, false, "play.example.net", 0),
+                record(null, BASE, true, "other.example.net:25566", 7),
+                record(BASE.plusMinutes(2), BASE.plusMinutes(2), true, "", -1));
+
+        assertRecords(records, parse(print(records)));
+    }
+
+    @Test
+    void keepsFractionalSecondsOfAnyLength() throws IOException {
+        // ISO_LOCAL_DATE_TIME prints as many fraction digits as needed, from 1 to 9
+        int[] nanos = {0, 500_000_000, 120_000_000, 123_000_000, 123_400_000, 100_000, 1_000, 10, 1, 123_456_789, 999_999_999};
+        List<ActivityRecord> records = new ArrayList<>();
+        for (int i = 0; i < nanos.length; i++) {
+            LocalDateTime time = BASE.plusSeconds(i).withNano(nanos[i]);
+            records.add(record(time, time.minusNanos(nanos[i] / 2 + 1), true, "play.example.net", i));
+        }
+
+        String csv = print(records);
+        assertTrue(csv.contains("T12:00:01.5;"), csv);
+        assertTrue(csv.contains("T12:00:08.000000001;"), csv);
+
+        List<ActivityRecord> parsed = parse(csv);
+        assertRecords(records, parsed);
+        ActivityCsvParser parser = new ActivityCsvParser();
+        byte[] line = csv.lines().skip(2).findFirst().orElseThrow().getBytes(StandardCharsets.UTF_8);
+        assertTrue(parser.parseLine(line, 0, line.length));
+        assertEquals(BASE.plusSeconds(1).toEpochSecond(ZoneOffset.UTC), parser.creationTime());
+    }
+
+    @Test
+    void unescapesQuotedFields() throws IOException {
+        List<ActivityRecord> records = List.of(
+                record(BASE, BASE, true, "quoted\"name\".example.net", 3),
+                record(BASE.plusMinutes(1), BASE, true, "semi;colon.example.net", 4),
+                record(BASE.plusMinutes(2), BASE, true, "\"\"", 5));
+
+        String csv = print(records);
+        assertTrue(csv.contains(";\"quoted\"\"name\"\".example.net\";"), csv);
+        assertRecords(records, parse(csv));
+
+        // Every field quoted, as other CSV writers may do
+        List<ActivityRecord> parsed = parse("\"2025-01-10T12:00:00.25\";\"2025-01-10T11:59:58\";\"true\";\"a\"\"b\";\"12\"\r\n");
+        assertRecords(List.of(record(BASE.withNano(250_000_000), BASE.minusSeconds(2), true, "a\"b", 12)), parsed);
+    }
+
+    @Test
+    void skipsEmptyLinesAndAcceptsCrlfOrLf() throws IOException {
+        List<ActivityRecord> records = List.of(
+                record(BASE, BASE, true, "a.example.net", 1),
+                record(BASE.plusMinutes(1), BASE, false, "b.example.net", 0),
+                record(BASE.plusMinutes(2), BASE, true, "c.example.net", 2));
+        String[] lines = print(records).split("\r\n");
+
+        String mixed = "\r\n" + lines[0] + "\r\n\r\n" + lines[1] + "\n\n" + lines[2] + "\r\n" + lines[3] + "\r\n\n";
+        assertRecords(records, parse(mixed));
+
+        // Last line without a line break
+        assertRecords(records, parse(String.join("\n", lines)));
+    }
+
+    @Test
+    void skipsHeaderAndMalformedRows() throws IOException {
+        String csv = String.join("\r\n",
+                "recordCreationTime;dataRetrievalTime;online;server;playerCount",
+                "2025-01-10T12:00:00;2025-01-10T12:00:00;true;a.example.net",
+                "2025-01-10T12:00:00;2025-01-10T12:00:00;true;a.example.net;1;extra",
+                "2025-01-10 12:00:00;2025-01-10T12:00:00;true;a.example.net;1",
+                "2025-02-30T12:00:00;2025-01-10T12:00:00;true;a.example.net;1",
+                "2025-01-10T12:00:00.1234567890;2025-01-10T12:00:00;true;a.example.net;1",
+                "\"2025-01-10T12:00:00;2025-01-10T12:00:00;true;a.example.net;1",
+                "2025-01-10T12:00;2025-01-10T12:00:00;true;b.example.net;2",
+                "");
+
+        assertRecords(List.of(record(BASE, BASE, true, "b.example.net", 2)), parse(csv));
+    }
+
+    @Test
+    void parsesLinesLongerThanTheReadBuffer() throws IOException {
+        List<ActivityRecord> records = new ArrayList<>();
+        records.add(record(BASE, BASE, true, "x".repeat(100_000) + ".example.net", 1));
+        for (int i = 0; i < 5_000; i++) {
+            LocalDateTime time = BASE.plusSeconds(i).withNano((int) (i * 1_000_001L % 1_000_000_000));
+            records.add(record(time, time, i % 3 != 0, "play" + (i % 10) + ".example.net", i));
+        }
+
+        assertRecords(records, parse(print(records)));
+    }
+
+    @Test
+    void comparesCreationTimeIncludingNanos() {
+        ActivityCsvParser parser = new ActivityCsvParser();
+        byte[] line = "2025-01-10T12:00:00.5;;true;a.example.net;1".getBytes(StandardCharsets.UTF_8);
+        assertTrue(parser.parseLine(line, 0, line.length));
+
+        assertTrue(parser.createdWithin(BASE, BASE.withNano(500_000_000)));
+        assertTrue(parser.createdWithin(null, null));
+        assertFalse(parser.createdWithin(BASE.withNano(500_000_001), null));
+        assertFalse(parser.createdWithin(null, BASE.withNano(499_999_999)));
+        assertEquals(ActivitySeriesStore.NO_TIME, parser.retrievalTime());
+    }
+
+    @Test
+    void sharesServerNamesWithDictionary() throws IOException {
+        ServerDictionary dictionary = ServerDictionary.load(dir.resolve("server-ids.csv"));
+        String name = dictionary.nameOf(dictionary.idOf("play.example.net"));
+        ActivityCsvParser parser = new ActivityCsvParser(dictionary);
+        List<String> servers = new ArrayList<>();
+        byte[] csv = print(List.of(record(BASE, BASE, true, "play.example.net", 1),
+                record(BASE.plusMinutes(1), BASE, true, "play.example.net", 2))).getBytes(StandardCharsets.UTF_8);
+
+        parser.parse(new ByteArrayInputStream(csv), row -> {
+            assertTrue(row.serverEquals("play.example.net".getBytes(StandardCharsets.UTF_8)));
+            servers.add(row.server());
+        });
+
+        assertEquals(2, servers.size());
+        assertSame(name, servers.get(0));
+        assertSame(name, servers.get(1));
+    }
+
+    @Test
+    void decodesEpochSeconds() {
+        assertEquals(epochSecond("2025-01-10T12:00:00"), ActivityCsvParser.parseEpochSecond(bytes("2025-01-10T12:00"), 0, 16));
+        for (String time : List.of("1970-01-01T00:00:00", "2024-02-29T23:59:59", "2000-03-01T00:00:00.1", "1969-12-31T23:59:59.999999999")) {
+            byte[] b = bytes(time);
+            assertEquals(epochSecond(time), ActivityCsvParser.parseEpochSecond(b, 0, b.length), time);
+        }
+        for (String time : List.of("2023-02-29T00:00:00", "2025-01-10T24:00:00", "2025-01-10T12:00:", "2025-01-10T12:00:00.", "2025-01-10")) {
+            byte[] b = bytes(time);
+            assertEquals(ActivitySeriesStore.NO_TIME, ActivityCsvParser.parseEpochSecond(b, 0, b.length), time);
+        }
+    }
+
+    // ---------------------
+    // Helpers
+    // ---------------------
+
+    private static ActivityRecord record(LocalDateTime creationTime, LocalDateTime retrievalTime, boolean online, String server, int playerCount) {
+        ActivityRecord ar = new ActivityRecord();
+        ar.recordCreationTime = creationTime;
+        ar.dataRetrievalTime = retrievalTime;
+        ar.online = online;
+        ar.server = server;
+        ar.playerCount = playerCount;
+        return ar;
+    }
+
+    /**
+     * Prints the records the way the storage service writes CSV segments, with the header line.
+     */
+    private static String print(List<ActivityRecord> records) throws IOException {
+        StringBuilder out = new StringBuilder();
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.builder()
+                .setHeader("recordCreationTime", "dataRetrievalTime", "online", "server", "playerCount")
+                .setDelimiter(';')
+                .get());
+        DateTimeFormatter format = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        for (ActivityRecord r : records) {
+            printer.printRecord(
+                    r.recordCreationTime != null ? format.format(r.recordCreationTime) : "",
+                    r.dataRetrievalTime != null ? format.format(r.dataRetrievalTime) : "",
+                    r.online,
+                    r.server != null ? r.server : "",
+                    r.playerCount);
+        }
+        return out.toString();
+    }
+
+    private static List<ActivityRecord> parse(String csv) throws IOException {
+        List<ActivityRecord> records = new ArrayList<>();
+        new ActivityCsvParser().parse(new ByteArrayInputStream(bytes(csv)), row -> records.add(row.toActivityRecord()));
+        return records;
+    }
+
+    private static void assertRecords(List<ActivityRecord> expected, List<ActivityRecord> actual) {
+        assertEquals(expected.size(), actual.size(), "number of rows");
+        for (int i = 0; i < expected.size(); i++) {
+            ActivityRecord e = expected.get(i);
+            ActivityRecord a = actual.get(i);
+            assertEquals(e.recordCreationTime, a.recordCreationTime, "creation time of row " + i);
+            assertEquals(e.dataRetrievalTime, a.dataRetrievalTime, "retrieval time of row " + i);
+            assertEquals(e.online, a.online, "online of row " + i);
+            assertEquals(e.server, a.server, "server of row " + i);
+            assertEquals(e.playerCount, a.playerCount, "player count of row " + i);
+        }
+    }
+
+    private static long epochSecond(String time) {
+        return LocalDateTime.parse(time).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
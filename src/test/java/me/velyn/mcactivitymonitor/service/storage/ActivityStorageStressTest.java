@@ -0,0 +1,286 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ActivityRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads the activity storage from several threads while others write to it, and checks that readers only ever see
+ * complete rows, that what they see only grows, and that they are never blocked by a writer.
+ * <p>
+ * Every row is derived from its server and creation time, so a row assembled from different records or read while
+ * it was only partly written does not match.
+ */
+@Timeout(120)
+class ActivityStorageStressTest {
+    private static final long BASE = LocalDateTime.of(2025, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    private static final int SERVERS = 4;
+    private static final int READERS = 4;
+    private static final long LOCK_HOLD_MILLIS = 300;
+
+    @TempDir
+    Path dir;
+
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean(true);
+    private final AtomicLong reads = new AtomicLong();
+
+    // ---------------------
+    // In-memory series
+    // ---------------------
+
+    @Test
+    void seriesReadsSeeCompleteGrowingDataWhileAppending() throws Exception {
+        int recordsPerServer = 20_000;
+        int lateRecordsPerServer = recordsPerServer / 100;
+        ActivitySeriesStore store = new ActivitySeriesStore(ServerDictionary.load(dir.resolve("server-ids.csv")));
+
+        AtomicLongArray appended = new AtomicLongArray(SERVERS);
+        List<Thread> writers = new ArrayList<>();
+        for (int s = 0; s < SERVERS; s++) {
+            int server = s;
+            writers.add(start(() -> {
+                for (int i = 0; i < recordsPerServer; i++) {
+                    // Skips every 100th time, filled in by the late writer below
+                    if (i % 100 != 50) appendRow(store, server, BASE + i * 60L);
+                    appended.set(server, i);
+                }
+            }));
+        }
+        // Records arriving out of order take the insert path while the in-order appends continue
+        writers.add(start(() -> {
+            for (int i = 0; i < lateRecordsPerServer; i++) {
+                long late = i * 100L + 50;
+                for (int s = 0; s < SERVERS; s++) {
+                    while (appended.get(s) <= late && writing.get()) Thread.onSpinWait();
+                    appendRow(store, s, BASE + late * 60L);
+                }
+            }
+        }));
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            long seed = r;
+            readers.add(start(() -> readSeries(store, new Random(seed))));
+        }
+
+        for (Thread t : writers) t.join();
+        writing.set(false);
+        for (Thread t : readers) t.join();
+        assertNoFailures();
+
+        assertEquals((long) SERVERS * recordsPerServer, store.getCount());
+        for (int s = 0; s < SERVERS; s++) {
+            List<ActivityRecord> records = store.query(null, null, serverName(s));
+            assertEquals(recordsPerServer, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(BASE + i * 60L, ActivitySeriesStore.toEpochSecond(records.get(i).recordCreationTime));
+                assertWellFormed(records.get(i));
+            }
+        }
+    }
+
+    private void readSeries(ActivitySeriesStore store, Random random) {
+        long lastTotal = 0;
+        long[] lastCounts = new long[SERVERS];
+        while (writing.get()) {
+            long total = store.getCount();
+            assertTrue(total >= lastTotal, "count shrank from " + lastTotal + " to " + total);
+            lastTotal = total;
+
+            int s = random.nextInt(SERVERS);
+            ActivitySeriesStore.Range all = store.range(null, null, serverName(s));
+            assertTrue(all.count() >= lastCounts[s], "count of " + serverName(s) + " shrank");
+            lastCounts[s] = all.count();
+
+            long fromSec = BASE + random.nextInt(20_000) * 60L;
+            long toSec = fromSec + random.nextInt(2_000) * 60L;
+            String server = random.nextBoolean() ? serverName(s) : null;
+            List<ActivityRecord> records = store.query(ActivitySeriesStore.fromEpochSecond(fromSec),
+                    ActivitySeriesStore.fromEpochSecond(toSec), server);
+            long previous = Long.MIN_VALUE;
+            for (ActivityRecord ar : records) {
+                long creationTime = ActivitySeriesStore.toEpochSecond(ar.recordCreationTime);
+                assertTrue(creationTime >= fromSec && creationTime <= toSec, "outside of the range: " + ar.recordCreationTime);
+                assertTrue(creationTime >= previous, "not ordered by creation time");
+                if (server != null) assertEquals(server, ar.server);
+                assertWellFormed(ar);
+                previous = creationTime;
+            }
+            reads.incrementAndGet();
+        }
+    }
+
+    // ---------------------
+    // Binary segments
+    // ---------------------
+
+    @Test
+    void segmentReadsSeeCompleteGrowingDataWhileAppending() throws Exception {
+        int recordsPerServer = 50_000;
+        Path segment = dir.resolve("activity-records-2025-01.bin");
+        SegmentAppender appender = new SegmentAppender();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int s = 0; s < SERVERS; s++) {
+            int server = s;
+            writers.add(start(() -> {
+                Random random = new Random(server);
+                int next = 0;
+                while (next < recordsPerServer) {
+                    List<ActivityRecord> batch = new ArrayList<>();
+                    int size = Math.min(1 + random.nextInt(64), recordsPerServer - next);
+                    for (int i = 0; i < size; i++, next++) {
+                        batch.add(row(server, BASE + next * 60L));
+                    }
+                    appender.append(segment, BinaryActivityRecordFile.encode(batch, ActivityStorageStressTest::serverId));
+                }
+            }));
+        }
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(start(() -> readSegment(appender, segment)));
+        }
+        // Appends hold the appender's monitor, readers must not wait for it
+        Thread holder = start(() -> {
+            Thread.sleep(50);
+            synchronized (appender) {
+                long readableSize = appender.readableSize(segment);
+                long readsBefore = reads.get();
+                Thread.sleep(LOCK_HOLD_MILLIS);
+                assertTrue(reads.get() > readsBefore, "no segment read finished while an append was blocked");
+                assertEquals(readableSize, appender.readableSize(segment));
+            }
+        });
+
+        holder.join();
+        for (Thread t : writers) t.join();
+        writing.set(false);
+        for (Thread t : readers) t.join();
+        appender.close();
+        assertNoFailures();
+
+        long[] next = new long[SERVERS];
+        long rows = BinaryActivityRecordFile.scan(segment, -1, -1, Long.MIN_VALUE, Long.MAX_VALUE, (id, rct, drt, onl, plc) -> {
+            assertEquals(BASE + next[id]++ * 60L, rct);
+            assertWellFormed(id, rct, drt, onl, plc);
+        });
+        assertEquals((long) SERVERS * recordsPerServer, rows);
+    }
+
+    private void readSegment(SegmentAppender appender, Path segment) throws Exception {
+        long lastReadable = 0;
+        long lastRows = 0;
+        while (writing.get()) {
+            long readable = appender.readableSize(segment);
+            assertTrue(readable >= lastReadable, "readable size shrank from " + lastReadable + " to " + readable);
+            assertEquals(0, readable % BinaryActivityRecordFile.RECORD_SIZE, "readable size within a record");
+            lastReadable = readable;
+
+            // The rows of each server have to be the first ones it wrote, without gaps
+            long[] next = new long[SERVERS];
+            long rows = BinaryActivityRecordFile.scan(segment, readable, -1, Long.MIN_VALUE, Long.MAX_VALUE, (id, rct, drt, onl, plc) -> {
+                assertTrue(id >= 0 && id < SERVERS, "unknown server id " + id);
+                assertEquals(BASE + next[id]++ * 60L, rct, "gap in the rows of server " + id);
+                assertWellFormed(id, rct, drt, onl, plc);
+            });
+            assertEquals(readable / BinaryActivityRecordFile.RECORD_SIZE, rows);
+            assertTrue(rows >= lastRows, "row count shrank from " + lastRows + " to " + rows);
+            lastRows = rows;
+
+            // Newest rows first, as read for the latest record of each server
+            long[] last = new long[]{Long.MAX_VALUE};
+            BinaryActivityRecordFile.scanReverse(segment, readable, (id, rct, drt, onl, plc) -> {
+                assertWellFormed(id, rct, drt, onl, plc);
+                assertTrue(rct < last[0] || id != 0, "server 0 rows out of order");
+                if (id == 0) last[0] = rct;
+                return rct > BASE + 1000 * 60L;
+            });
+            reads.incrementAndGet();
+        }
+    }
+
+    // ---------------------
+    // Helpers
+    // ---------------------
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private Thread start(Task task) {
+        return Thread.ofPlatform().start(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failures.add(t);
+                writing.set(false);
+            }
+        });
+    }
+
+    private void assertNoFailures() {
+        Throwable first = failures.peek();
+        if (first != null) {
+            AssertionError error = new AssertionError(failures.size() + " thread(s) failed", first);
+            failures.stream().skip(1).forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    private static String serverName(int server) {
+        return "play" + server + ".example.net";
+    }
+
+    private static int serverId(String server) {
+        return Integer.parseInt(server.substring(4, server.indexOf('.')));
+    }
+
+    private static void appendRow(ActivitySeriesStore store, int server, long creationTime) {
+        ActivityRecord ar = row(server, creationTime);
+        store.append(ar.server, creationTime, ActivitySeriesStore.toEpochSecond(ar.dataRetrievalTime), ar.online, ar.playerCount);
+    }
+
+    private static ActivityRecord row(int server, long creationTime) {
+        ActivityRecord ar = new ActivityRecord();
+        ar.server = serverName(server);
+        ar.recordCreationTime = ActivitySeriesStore.fromEpochSecond(creationTime);
+        ar.dataRetrievalTime = ActivitySeriesStore.fromEpochSecond(creationTime - 1 - server);
+        ar.online = creationTime % 7 != 0;
+        ar.playerCount = ar.online ? (int) (creationTime % 500) + server : 0;
+        return ar;
+    }
+
+    private static void assertWellFormed(ActivityRecord ar) {
+        assertNotNull(ar.server, "row without server");
+        assertNotNull(ar.recordCreationTime, "row without creation time");
+        int server = serverId(ar.server);
+        assertWellFormed(server, ActivitySeriesStore.toEpochSecond(ar.recordCreationTime),
+                ActivitySeriesStore.toEpochSecond(ar.dataRetrievalTime), ar.online, ar.playerCount);
+    }
+
+    private static void assertWellFormed(int server, long creationTime, long retrievalTime, boolean online, int playerCount) {
+        ActivityRecord expected = row(server, creationTime);
+        if (retrievalTime != ActivitySeriesStore.toEpochSecond(expected.dataRetrievalTime)
+                || online != expected.online || playerCount != expected.playerCount) {
+            fail("malformed row of server " + server + " at " + creationTime + ": " + retrievalTime + ", " + online + ", " + playerCount);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package me.velyn.mcactivitymonitor.service.storage;
+
+import me.velyn.mcactivitymonitor.data.ServerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerRegistryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysJournalWithTornTimestampInLastEntry() throws IOException {
+        Path snapshot = dir.resolve("servers.csv");
+        writeJournal(snapshot,
+                "put;a.example.net;2025-01-10T12:00:00",
+                "put;b.example.net;",
+                "put;c.example.net;2025-01-10T12:10:00",
+                "del;c.example.net",
+                "put;a.example.net;2025-01-10T12:30:00",
+                "put;play.example.net;2025-01-10T12:3");
+
+        ServerRegistry registry = ServerRegistry.load(snapshot);
+
+        assertEquals(Set.of("a.example.net", "b.example.net"), names(registry));
+        assertEquals(LocalDateTime.parse("2025-01-10T12:30:00"), registry.get("a.example.net").lastFetchTime);
+        assertFalse(Files.exists(journal(snapshot)), "journal should be compacted into the snapshot");
+
+        // The snapshot written after the replay holds the complete entries
+        assertEquals(Set.of("a.example.net", "b.example.net"), names(ServerRegistry.load(snapshot)));
+    }
+
+    @Test
+    void replaysJournalWithLastEntryCutOffBeforeTimestamp() throws IOException {
+        Path snapshot = dir.resolve("servers.csv");
+        writeJournal(snapshot,
+                "put;a.example.net;2025-01-10T12:00:00",
+                "put;play.exam");
+
+        assertEquals(Set.of("a.example.net"), names(ServerRegistry.load(snapshot)));
+    }
+
+    @Test
+    void rejectsInvalidEntryBeforeLastLine() throws IOException {
+        Path snapshot = dir.resolve("servers.csv");
+        writeJournal(snapshot,
+                "put;a.example.net;2025-01-10T12:00:00",
+                "put;play.example.net;2025-01-10T12:3",
+                "put;b.example.net;2025-01-10T12:10:00");
+
+        IOException e = assertThrows(IOException.class, () -> ServerRegistry.load(snapshot));
+        assertTrue(e.getMessage().contains("line 2"), e.getMessage());
+        assertTrue(Files.exists(journal(snapshot)), "journal must be kept when it cannot be replayed");
+    }
+
+    @Test
+    void appendsAfterReplayingTruncatedJournal() throws IOException {
+        Path snapshot = dir.resolve("servers.csv");
+        writeJournal(snapshot,
+                "put;a.example.net;2025-01-10T12:00:00",
+                "del;a.exa");
+
+        ServerRegistry registry = ServerRegistry.load(snapshot);
+        registry.put("b.example.net", LocalDateTime.parse("2025-01-10T13:00:00"));
+        registry.close();
+
+        assertEquals(Set.of("a.example.net", "b.example.net"), names(ServerRegistry.load(snapshot)));
+    }
+
+    @Test
+    void roundTripsNamesWithSeparatorAndLineBreaks() throws IOException {
+        Path snapshot = dir.resolve("servers.csv");
+        String odd = "odd;name\r\nwith \"quotes\" and %3B";
+        ServerRegistry registry = ServerRegistry.load(snapshot);
+        registry.put(odd, LocalDateTime.parse("2025-01-10T12:00:00"));
+        registry.put("a.example.net", LocalDateTime.parse("2025-01-10T12:10:00"));
+        registry.close();
+
+        // Replayed from the journal
+        ServerRegistry replayed = ServerRegistry.load(snapshot);
+        assertEquals(Set.of(odd, "a.example.net"), names(replayed));
+        assertEquals(LocalDateTime.parse("2025-01-10T12:00:00"), replayed.get(odd).lastFetchTime);
+        assertTrue(replayed.remove(odd));
+        replayed.put(odd, LocalDateTime.parse("2025-01-10T12:20:00"));
+        replayed.close();
+
+        // Replayed from the journal on top of the snapshot written above
+        ServerRegistry reloaded = ServerRegistry.load(snapshot);
+        assertEquals(Set.of(odd, "a.example.net"), names(reloaded));
+        assertEquals(LocalDateTime.parse("2025-01-10T12:20:00"), reloaded.get(odd).lastFetchTime);
+
+        // Read from the snapshot only
+        assertEquals(Set.of(odd, "a.example.net"), names(ServerRegistry.load(snapshot)));
+    }
+
+    @Test
+    void validatesNames() {
+        assertTrue(ServerRegistry.isValidName("play.example.net"));
+        assertTrue(ServerRegistry.isValidName("play.example.net:25566"));
+        assertTrue(ServerRegistry.isValidName("[::1]:25565"));
+        assertFalse(ServerRegistry.isValidName(null));
+        assertFalse(ServerRegistry.isValidName(""));
+        assertFalse(ServerRegistry.isValidName("   "));
+        assertFalse(ServerRegistry.isValidName(" play.example.net"));
+        assertFalse(ServerRegistry.isValidName("play.example.net\n"));
+        assertFalse(ServerRegistry.isValidName("play\r.example.net"));
+        assertFalse(ServerRegistry.isValidName("play;example.net"));
+    }
+
+    private static void writeJournal(Path snapshot, String... lines) throws IOException {
+        // No line separator after the last entry, as if the process died while writing it
+        Files.writeString(journal(snapshot), String.join(System.lineSeparator(), List.of(lines)), StandardCharsets.UTF_8);
+    }
+
+    private static Path journal(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+    }
+
+    private static Set<String> names(ServerRegistry registry) {
+        Set<String> names = new TreeSet<>();
+        for (ServerRecord sr : registry.getServers()) {
+            names.add(sr.server);
+        }
+        return names;
+    }
+}